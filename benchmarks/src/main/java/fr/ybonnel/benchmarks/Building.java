@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.benchmarks;
+
+import fr.ybonnel.services.Elevators;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Parameters of the simulated building, shared by all benchmarks.
+ */
+@State(Scope.Thread)
+public abstract class Building {
+
+    static final String INITIAL_RESET = "all elevators are at floor 0";
+    static final int LOWER_FLOOR = -5;
+
+    @Param({"54", "200"})
+    int floorCount;
+
+    @Param({"2", "8"})
+    int cabinCount;
+
+    @Param({"5", "30"})
+    int cabinSize;
+
+    // Users waiting in the building when the measured code starts.
+    @Param({"0", "100", "1000"})
+    int queuedUsers;
+
+    final Random random = new Random(42);
+
+    int higherFloor() {
+        return LOWER_FLOOR + floorCount - 1;
+    }
+
+    int randomFloor() {
+        return LOWER_FLOOR + random.nextInt(floorCount);
+    }
+
+    String randomDirection() {
+        return random.nextBoolean() ? "UP" : "DOWN";
+    }
+
+    /**
+     * Reset the elevators and queue users on random floors.
+     */
+    void fill(Elevators elevators) {
+        elevators.reset(INITIAL_RESET, LOWER_FLOOR, higherFloor(), cabinSize, cabinCount);
+        elevators.nextCommands();
+        refill(elevators, 0);
+    }
+
+    /**
+     * Call new users on random floors until queuedUsers users are waiting again.
+     * @param waitingUsers users still waiting in the building.
+     */
+    void refill(Elevators elevators, int waitingUsers) {
+        for (int user = waitingUsers; user < queuedUsers; user++) {
+            elevators.call(randomFloor(), randomDirection());
+        }
+    }
+}
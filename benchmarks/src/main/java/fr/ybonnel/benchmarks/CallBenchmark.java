@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.benchmarks;
+
+import fr.ybonnel.services.ByUser2Elevators;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls of ByUser2Elevators.
+ * Each call adds a user, so one iteration is a batch of calls on a fresh building.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 50, batchSize = CallBenchmark.BATCH_SIZE)
+@Measurement(iterations = 50, batchSize = CallBenchmark.BATCH_SIZE)
+@Fork(1)
+public class CallBenchmark {
+
+    static final int BATCH_SIZE = 1000;
+
+    public static class ByUser2State extends Building {
+        ByUser2Elevators elevators;
+        int[] floors = new int[BATCH_SIZE];
+        String[] directions = new String[BATCH_SIZE];
+        int index;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            elevators = new ByUser2Elevators(false, false, Integer.MAX_VALUE);
+            fill(elevators);
+            for (int call = 0; call < BATCH_SIZE; call++) {
+                floors[call] = randomFloor();
+                directions[call] = randomDirection();
+            }
+            index = 0;
+        }
+    }
+
+    @Benchmark
+    public void byUser2Elevators(ByUser2State state) {
+        int call = state.index++ % BATCH_SIZE;
+        state.elevators.call(state.floors[call], state.directions[call]);
+    }
+}
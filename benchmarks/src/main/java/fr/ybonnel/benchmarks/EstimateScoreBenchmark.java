@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.benchmarks;
+
+import fr.ybonnel.services.ByUser2Elevator;
+import fr.ybonnel.services.model.Direction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Score estimation of one cabin, the four estimations done by tick.
+ * Half of queued users are waiting, the other half are inside the cabin.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EstimateScoreBenchmark {
+
+    public static class CabinState extends Building {
+        ByUser2Elevator elevator;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            elevator = new ByUser2Elevator(false);
+            elevator.reset(INITIAL_RESET, LOWER_FLOOR, higherFloor(), cabinSize, Direction.UP);
+            for (int user = 0; user < queuedUsers; user++) {
+                if (user % 2 == 0) {
+                    elevator.addUserWaiting(elevator.getUsers().create(randomFloor(), 0, Direction.valueOf(randomDirection())));
+                } else {
+                    elevator.go(randomFloor());
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int openUp(CabinState state) {
+        return state.elevator.estimateScore(state.elevator.getCurrentFloor(), Direction.UP, true);
+    }
+
+    @Benchmark
+    public int noOpenUp(CabinState state) {
+        return state.elevator.estimateScore(state.elevator.getCurrentFloor(), Direction.UP, false);
+    }
+
+    @Benchmark
+    public int openDown(CabinState state) {
+        return state.elevator.estimateScore(state.higherFloor(), Direction.DOWN, true);
+    }
+
+    @Benchmark
+    public int noOpenDown(CabinState state) {
+        return state.elevator.estimateScore(state.higherFloor(), Direction.DOWN, false);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.benchmarks;
+
+import fr.ybonnel.services.ByUser2Elevator;
+import fr.ybonnel.services.ByUser2Elevators;
+import fr.ybonnel.services.ByUserElevators;
+import fr.ybonnel.services.model.Commands;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tick of each dispatcher, with queuedUsers users waiting in the building.
+ * The building lives for the whole iteration : after each tick, users taken by opening cabins are
+ * replaced by as many calls, so the queue stays at queuedUsers and the measured time is the steady cost
+ * of one tick plus the calls of users arriving at the rate cabins take them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class NextCommandsBenchmark {
+
+    public static class ByUserState extends Building {
+        ByUserElevators elevators;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            elevators = new ByUserElevators(false, Integer.MAX_VALUE);
+            fill(elevators);
+        }
+
+        Commands tick() {
+            Commands commands = elevators.nextCommands();
+            refill(elevators, elevators.getWaitingUsersCount());
+            return commands;
+        }
+    }
+
+    public static class ByUser2State extends Building {
+        ByUser2Elevators elevators;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            elevators = new ByUser2Elevators(false, false, Integer.MAX_VALUE);
+            fill(elevators);
+        }
+
+        Commands tick() {
+            Commands commands = elevators.nextCommands();
+            int waitingUsers = 0;
+            for (ByUser2Elevator elevator : elevators.getElevators()) {
+                waitingUsers += elevator.getWaitingUsers().size();
+            }
+            refill(elevators, waitingUsers);
+            return commands;
+        }
+    }
+
+    @Benchmark
+    public Commands byUserElevators(ByUserState state) {
+        return state.tick();
+    }
+
+    @Benchmark
+    public Commands byUser2Elevators(ByUser2State state) {
+        return state.tick();
+    }
+}
@@ -1,10 +1,17 @@
 package fr.ybonnel;
 
-import fr.ybonnel.services.ByUser2Elevator;
+import fr.ybonnel.services.ArrivalForecast;
 import fr.ybonnel.services.ByUser2Elevators;
 import fr.ybonnel.services.ByUserElevator;
 import fr.ybonnel.services.ByUserElevators;
 import fr.ybonnel.services.ElevatorService;
+import fr.ybonnel.services.Elevators;
+import fr.ybonnel.services.EventJournal;
+import fr.ybonnel.services.LookaheadElevators;
+import fr.ybonnel.services.NextCommandsHandler;
+import fr.ybonnel.services.RequestLogger;
+import fr.ybonnel.services.RouteMetrics;
+import fr.ybonnel.services.ShadowEvaluator;
 import fr.ybonnel.simpleweb4j.exception.HttpErrorException;
 import fr.ybonnel.simpleweb4j.handlers.ContentType;
 import fr.ybonnel.simpleweb4j.handlers.Response;
@@ -18,7 +25,11 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static fr.ybonnel.simpleweb4j.SimpleWeb4j.*;
 
@@ -29,6 +40,8 @@ public class Main {
 
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
+    private static ForkJoinPool lookaheadPool;
+
     public static String getFullURL(HttpServletRequest request) {
         StringBuilder requestURL = new StringBuilder(request.getMethod());
         requestURL.append(" - ");
@@ -56,32 +69,30 @@ public class Main {
         addSpecificHandler(new AbstractHandler() {
             @Override
             public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-                logger.info("Call of {} for {}", request.getRemoteAddr(), getFullURL(request));
+                RequestLogger requestLogger = RequestLogger.getInstance();
+                if (requestLogger.isSampled("request")) {
+                    requestLogger.info(logger, "Call of {} for {}", request.getRemoteAddr(), getFullURL(request));
+                }
             }
         });
 
-        final ByUser2Elevators elevators = new ByUser2Elevators();
-        new ElevatorService("/elevator", elevators).registerRoutes();
+        final List<ElevatorService> elevatorServices = new ArrayList<>();
+        final List<RouteMetrics> allMetrics = new ArrayList<>();
+        List<String> buildings = buildings();
+        if (buildings.isEmpty()) {
+            addBuilding(null, "/elevator", "", elevatorServices, allMetrics);
+        }
+        for (String building : buildings) {
+            addBuilding(building, "/" + building, "/" + building, elevatorServices, allMetrics);
+        }
+        // nextCommands is answered before routes, without building the response String.
+        addSpecificHandler(new NextCommandsHandler(elevatorServices));
 
-        get(new Route<Void, String>("/status", Void.class, ContentType.PLAIN_TEXT){
+        get(new Route<Void, String>("/metrics", Void.class, ContentType.PLAIN_TEXT){
 
             @Override
             public Response<String> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
-                StringBuilder builder = new StringBuilder();
-                int index = 0;
-                for (ByUser2Elevator elevator : elevators.getElevators()) {
-                    builder.append("elevator ").append(index++).append(" :").append("\n");
-                    builder.append("\tcurrentdirection : ").append(elevator.getCurrentDirection()).append('\n');
-                    builder.append("\tcurrentfloor : ").append(elevator.getCurrentFloor()).append('\n');
-                    builder.append("\tbestfloortowait : ").append(elevator.getBestFloorToWait()).append('\n');
-                    builder.append("\tcurrenttick : ").append(elevator.getCurrentTick()).append('\n');
-                    builder.append("\tcurrentscore : ").append(elevator.getCurrentScore()).append('\n');
-                    builder.append("\tresetCount : ").append(elevator.getResetCount()).append('\n');
-                }
-                builder.append("\nCallsByFloor : ").append("\n").append(elevators.getCallsByFloor());
-                builder.append("\nPeopleByTick : ").append("\n").append(elevators.getPeopleByTick());
-
-                return new Response<>(builder.toString());
+                return new Response<>(RouteMetrics.toPrometheus(allMetrics));
             }
         });
 
@@ -89,6 +100,99 @@ public class Main {
         start(waitStop);
     }
 
+    /**
+     * Register routes of an independent building, with its own elevators, lock or event loop and metrics.
+     * @param building name of building, null for the default one.
+     * @param route prefix of routes of the game server.
+     * @param pagesPrefix prefix of status and shadow pages.
+     */
+    private static void addBuilding(String building, String route, String pagesPrefix,
+                                    List<ElevatorService> elevatorServices, List<RouteMetrics> allMetrics) throws IOException {
+        final ByUser2Elevators elevators = lookahead()
+                ? new LookaheadElevators(logState(), 10, lookaheadPool(),
+                        Integer.getInteger("elevator.lookahead.horizon", LookaheadElevators.DEFAULT_HORIZON),
+                        Integer.getInteger("elevator.lookahead.rollouts", LookaheadElevators.DEFAULT_ROLLOUTS),
+                        Long.getLong("elevator.lookahead.budgetMicros", LookaheadElevators.DEFAULT_BUDGET_MICROS))
+                : new ByUser2Elevators(false, logState(), 10);
+        final RouteMetrics metrics = new RouteMetrics(building);
+        File journalDirectory = journalDirectory();
+        EventJournal journal = journalDirectory == null ? null
+                : new EventJournal(new File(journalDirectory, building == null ? "elevator" : building));
+        ElevatorService elevatorService = new ElevatorService(route, elevators, useEventLoop(), speculate(), metrics, journal);
+        elevatorService.setNextCommandsDeadline(nextCommandsDeadlineMicros());
+        elevators.setMatchingAssignment(matchingAssignment());
+        if (forecast()) {
+            elevators.setArrivalForecast(new ArrivalForecast(ArrivalForecast.DEFAULT_BUCKET_TICKS,
+                    Integer.getInteger("elevator.forecast.horizon", ArrivalForecast.DEFAULT_HORIZON),
+                    Integer.getInteger("elevator.forecast.period", ArrivalForecast.DEFAULT_PERIOD)));
+        }
+        elevatorService.registerRoutes();
+        elevatorServices.add(elevatorService);
+        allMetrics.add(metrics);
+
+        get(new Route<Void, String>(pagesPrefix + "/status", Void.class, ContentType.PLAIN_TEXT){
+
+            @Override
+            public Response<String> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
+                return new Response<>(elevators.getStatus().render());
+            }
+        });
+
+        List<String> candidates = shadowCandidates();
+        if (!candidates.isEmpty()) {
+            final ShadowEvaluator shadowEvaluator = new ShadowEvaluator(ShadowEvaluator.DEFAULT_CAPACITY);
+            for (String candidate : candidates) {
+                shadowEvaluator.addCandidate(candidate, newElevators(candidate));
+            }
+            shadowEvaluator.start();
+            elevatorService.setShadowEvaluator(shadowEvaluator);
+
+            get(new Route<Void, String>(pagesPrefix + "/shadow", Void.class, ContentType.PLAIN_TEXT){
+
+                @Override
+                public Response<String> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
+                    return new Response<>(shadowEvaluator.report(metrics.getHistogram("nextCommands")));
+                }
+            });
+        }
+    }
+
+    /**
+     * @return algorithms evaluated in shadow of production (-Delevator.shadow=byUser,byUser2,byUser2Old).
+     */
+    private static List<String> shadowCandidates() {
+        List<String> candidates = new ArrayList<>();
+        for (String candidate : System.getProperty("elevator.shadow", "").split(",")) {
+            if (!candidate.trim().isEmpty()) {
+                candidates.add(candidate.trim());
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return new elevators of the algorithm (byUser, byUser2, byUser2Old or lookahead), also used by tools replaying traffic.
+     */
+    static Elevators newElevators(String name) {
+        switch (name) {
+            case "byUser":
+                return new ByUserElevators(false, 10);
+            case "byUser2":
+                return new ByUser2Elevators(false, false, 10);
+            case "byUser2Old":
+                return new ByUser2Elevators(true, false, 10);
+            case "matching":
+                ByUser2Elevators matching = new ByUser2Elevators(false, false, 10);
+                matching.setMatchingAssignment(true);
+                return matching;
+            case "lookahead":
+                return new LookaheadElevators(false, 10, lookaheadPool(), LookaheadElevators.DEFAULT_HORIZON,
+                        LookaheadElevators.DEFAULT_ROLLOUTS, LookaheadElevators.DEFAULT_BUDGET_MICROS);
+            default:
+                throw new IllegalArgumentException("Unknown algorithm : " + name);
+        }
+    }
+
 
     /**
      * @return port to use
@@ -110,6 +214,96 @@ public class Main {
         return 9999;
     }
 
+    /**
+     * @return names of buildings hosted (-Delevator.buildings=north,south), routes of a building start with /{building}.
+     * Empty to host only one building on /elevator.
+     */
+    private static List<String> buildings() {
+        List<String> buildings = new ArrayList<>();
+        for (String building : System.getProperty("elevator.buildings", "").split(",")) {
+            building = building.trim();
+            if (building.isEmpty()) {
+                continue;
+            }
+            if (!building.matches("[A-Za-z0-9_-]+") || buildings.contains(building)) {
+                throw new IllegalArgumentException("Invalid or duplicated building name : " + building);
+            }
+            buildings.add(building);
+        }
+        return buildings;
+    }
+
+    /**
+     * @return directory of event journals (-Delevator.journal=/var/elevator/journal), one sub-directory by building.
+     * Null for no journal.
+     */
+    private static File journalDirectory() {
+        String journal = System.getProperty("elevator.journal");
+        return journal == null ? null : new File(journal);
+    }
+
+    /**
+     * @return true to choose commands with rollouts over next ticks (-Delevator.lookahead=true),
+     * tuned by -Delevator.lookahead.horizon, -Delevator.lookahead.rollouts and -Delevator.lookahead.budgetMicros.
+     */
+    private static boolean lookahead() {
+        return Boolean.getBoolean("elevator.lookahead");
+    }
+
+    /**
+     * @return pool of rollouts, shared by all buildings.
+     */
+    private static synchronized ForkJoinPool lookaheadPool() {
+        if (lookaheadPool == null) {
+            lookaheadPool = new ForkJoinPool();
+        }
+        return lookaheadPool;
+    }
+
+    /**
+     * @return true to assign waiting users with a min cost matching (-Delevator.matching=true).
+     */
+    private static boolean matchingAssignment() {
+        return Boolean.getBoolean("elevator.matching");
+    }
+
+    /**
+     * @return true to place idle cabins with the forecast of arrivals (-Delevator.forecast=true),
+     * tuned by -Delevator.forecast.horizon (ticks forecasted) and -Delevator.forecast.period (ticks of a cycle of arrivals, 1000 by default).
+     */
+    private static boolean forecast() {
+        return Boolean.getBoolean("elevator.forecast");
+    }
+
+    /**
+     * @return time allowed to nextCommands from the reception of the request (-Delevator.deadlineMicros=5000),
+     * 0 for no deadline.
+     */
+    private static long nextCommandsDeadlineMicros() {
+        return Long.getLong("elevator.deadlineMicros", 0L);
+    }
+
+    /**
+     * @return true to apply elevator events on a dedicated thread (-Delevator.eventLoop=true).
+     */
+    private static boolean useEventLoop() {
+        return Boolean.getBoolean("elevator.eventLoop");
+    }
+
+    /**
+     * @return true to prepare next commands between events on the event loop (-Delevator.speculate=true).
+     */
+    private static boolean speculate() {
+        return Boolean.getBoolean("elevator.speculate");
+    }
+
+    /**
+     * @return false to disable the dump of elevators state on each tick (-Delevator.log.state=false).
+     */
+    private static boolean logState() {
+        return Boolean.parseBoolean(System.getProperty("elevator.log.state", "true"));
+    }
+
     public static void main(String[] args) throws IOException {
         // For main, we want to wait the stop.
         startServer(getPort(), true);
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Online forecast of arrivals by floor.
+ * <p>
+ * Calls are counted by floor in buckets of ticks, each bucket of the period has a seasonal profile,
+ * smoothed over the cycles, so the forecast starts once the first cycle is seen.
+ * The recent rate of arrivals is an exponential smoothing of people by tick.
+ * </p>
+ */
+public class ArrivalForecast {
+
+    public static final int DEFAULT_BUCKET_TICKS = 50;
+    public static final int DEFAULT_HORIZON = 100;
+    public static final int DEFAULT_PERIOD = 1000;
+
+    private static final double SEASONAL_ALPHA = 0.5;
+    private static final double RATE_ALPHA = 0.05;
+
+    private final int bucketTicks;
+    private final int horizon;
+    private final int period;
+
+    private int lowerFloor;
+    private int higherFloor;
+    // Arrivals by floor of each bucket, null if never seen.
+    private final List<double[]> profile = new ArrayList<>();
+    private int currentBucket = -1;
+    private int[] currentCounts = new int[0];
+    private double recentRate;
+
+    public ArrivalForecast() {
+        this(DEFAULT_BUCKET_TICKS, DEFAULT_HORIZON, DEFAULT_PERIOD);
+    }
+
+    /**
+     * @param bucketTicks number of ticks of a bucket of the profile.
+     * @param horizon number of next ticks forecasted.
+     * @param period number of ticks of a cycle of arrivals.
+     */
+    public ArrivalForecast(int bucketTicks, int horizon, int period) {
+        if (bucketTicks <= 0 || horizon <= 0 || period <= 0) {
+            throw new IllegalArgumentException("Bucket ticks, horizon and period of forecast must be positive : "
+                    + bucketTicks + ", " + horizon + ", " + period);
+        }
+        this.bucketTicks = bucketTicks;
+        this.horizon = horizon;
+        this.period = period;
+    }
+
+    public int getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * The profile is kept while floors of the building don't change.
+     * @param newGame true if the tick index restarts, the current bucket is then dropped.
+     */
+    public void reset(int lowerFloor, int higherFloor, boolean newGame) {
+        if (lowerFloor != this.lowerFloor || higherFloor != this.higherFloor
+                || currentCounts.length != higherFloor - lowerFloor + 1) {
+            this.lowerFloor = lowerFloor;
+            this.higherFloor = higherFloor;
+            profile.clear();
+            currentCounts = new int[higherFloor - lowerFloor + 1];
+            currentBucket = -1;
+            recentRate = 0;
+        }
+        if (newGame) {
+            Arrays.fill(currentCounts, 0);
+            currentBucket = -1;
+        }
+    }
+
+    private int bucketOf(int tick) {
+        return tick % period / bucketTicks;
+    }
+
+    /**
+     * Start a new tick.
+     * @param arrivalsOfPreviousTick people arrived during the previous tick.
+     */
+    public void tick(int tick, int arrivalsOfPreviousTick) {
+        recentRate = RATE_ALPHA * arrivalsOfPreviousTick + (1 - RATE_ALPHA) * recentRate;
+        int bucket = bucketOf(tick);
+        if (bucket != currentBucket) {
+            closeBucket();
+            currentBucket = bucket;
+        }
+    }
+
+    public void call(int floor) {
+        if (currentBucket >= 0 && floor >= lowerFloor && floor <= higherFloor) {
+            currentCounts[floor - lowerFloor]++;
+        }
+    }
+
+    private void closeBucket() {
+        if (currentBucket < 0) {
+            return;
+        }
+        while (profile.size() <= currentBucket) {
+            profile.add(null);
+        }
+        double[] arrivals = profile.get(currentBucket);
+        if (arrivals == null) {
+            arrivals = new double[currentCounts.length];
+            for (int index = 0; index < currentCounts.length; index++) {
+                arrivals[index] = currentCounts[index];
+            }
+            profile.set(currentBucket, arrivals);
+        } else {
+            for (int index = 0; index < currentCounts.length; index++) {
+                arrivals[index] = SEASONAL_ALPHA * currentCounts[index] + (1 - SEASONAL_ALPHA) * arrivals[index];
+            }
+        }
+        Arrays.fill(currentCounts, 0);
+    }
+
+    /**
+     * @return arrivals by tick, smoothed over last ticks.
+     */
+    public double getRecentRate() {
+        return recentRate;
+    }
+
+    /**
+     * Add forecasted arrivals of each floor during the horizon after the tick.
+     * @param arrivalsByFloor arrivals of each floor from lowerFloor.
+     * @return false if no bucket of the horizon has a profile.
+     */
+    public boolean forecast(int tick, double[] arrivalsByFloor) {
+        boolean hasProfile = false;
+        int endTick = tick + horizon;
+        int bucketStart = tick;
+        while (bucketStart < endTick) {
+            int bucket = bucketOf(bucketStart);
+            int tickInPeriod = bucketStart % period;
+            int bucketEnd = bucketStart + bucketTicks - tickInPeriod % bucketTicks;
+            bucketEnd = Math.min(bucketEnd, bucketStart + period - tickInPeriod);
+            bucketEnd = Math.min(bucketEnd, endTick);
+            double[] arrivals = bucket < profile.size() ? profile.get(bucket) : null;
+            if (arrivals != null) {
+                hasProfile = true;
+                double part = (bucketEnd - bucketStart) / (double) bucketTicks;
+                for (int index = 0; index < arrivals.length; index++) {
+                    arrivalsByFloor[index] += part * arrivals[index];
+                }
+            }
+            bucketStart = bucketEnd;
+        }
+        return hasProfile;
+    }
+
+    /**
+     * Percentiles of a distribution of floors.
+     * @param weights weight of each floor from lowerFloor.
+     * @param percentiles in ascending order, between 0 and 100.
+     * @param results filled with floors of percentiles.
+     */
+    public static void getPercentiles(double[] weights, int lowerFloor, double[] percentiles, double[] results) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        int index = 0;
+        double cumulated = weights.length == 0 ? 0 : weights[0];
+        for (int percentileIndex = 0; percentileIndex < percentiles.length; percentileIndex++) {
+            double target = percentiles[percentileIndex] * total / 100;
+            while (cumulated < target && index < weights.length - 1) {
+                index++;
+                cumulated += weights[index];
+            }
+            results[percentileIndex] = lowerFloor + index;
+        }
+    }
+}
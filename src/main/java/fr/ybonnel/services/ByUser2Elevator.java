@@ -18,13 +18,11 @@ package fr.ybonnel.services;
 
 import fr.ybonnel.services.model.Command;
 import fr.ybonnel.services.model.Direction;
-import fr.ybonnel.services.model.User;
+import fr.ybonnel.services.model.State;
+import fr.ybonnel.services.model.UserTable;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Random;
 
 public class ByUser2Elevator extends CleverElevator {
 
@@ -37,7 +35,17 @@ public class ByUser2Elevator extends CleverElevator {
     private final boolean oldAlgo;
 
     public ByUser2Elevator(boolean oldAlgo) {
+        this(oldAlgo, new UserTable());
+    }
+
+    /**
+     * @param users table of users, can be shared with other cabins to move users between them.
+     */
+    public ByUser2Elevator(boolean oldAlgo, UserTable users) {
         this.oldAlgo = oldAlgo;
+        this.users = users;
+        this.waitingUsers = new FloorUsers(users);
+        this.toGoUsers = new FloorUsers(users);
     }
 
     private int currentTick = -1;
@@ -45,13 +53,29 @@ public class ByUser2Elevator extends CleverElevator {
 
     protected Direction currentDirection;
 
-    private Map<Integer, LinkedList<User>> waitingUsers = new HashMap<>();
-    private Map<Integer, LinkedList<User>> toGoUsers = new HashMap<>();
-    private LinkedList<User> usersJustEntered = new LinkedList<>();
+    private final UserTable users;
+    private final FloorUsers waitingUsers;
+    private final FloorUsers toGoUsers;
+    private int[] usersJustEntered = new int[4];
+    private int nbUsersJustEntered;
 
 
     @Override
     protected Command getNextCommand() {
+        return getNextCommand(true);
+    }
+
+    /**
+     * Cheap command when there is no time to estimate scores :
+     * the cabin opens for its users and goes on in its direction, as when no user has a score.
+     */
+    Command nextCommandWithoutScores() {
+        Command command = getNextCommand(false);
+        peopleActivity = false;
+        return command;
+    }
+
+    private Command getNextCommand(boolean withScores) {
         currentTick++;
 
         if (currentFloor == higherFloor && currentDirection == Direction.UP) {
@@ -63,24 +87,16 @@ public class ByUser2Elevator extends CleverElevator {
 
         if (hasFloorsToGo()) {
             if (isOpen()) {
-                if (toGoUsers.containsKey(currentFloor)) {
-                    toGoUsers.remove(currentFloor);
-                }
-                if (waitingUsers.containsKey(currentFloor)) {
-                    Iterator<User> it = waitingUsers.get(currentFloor).iterator();
-                    while (it.hasNext()) {
-                        if (it.next().getDirectionCalled() == currentDirection) {
-                            it.remove();
-                        }
-                    }
-                    if (waitingUsers.get(currentFloor).isEmpty()) {
-                        waitingUsers.remove(currentFloor);
+                toGoUsers.clear(currentFloor);
+                for (int index = waitingUsers.count(currentFloor) - 1; index >= 0; index--) {
+                    if (users.getDirectionCalled(waitingUsers.get(currentFloor, index)) == currentDirection) {
+                        users.release(waitingUsers.remove(currentFloor, index));
                     }
                 }
 
                 return close();
             } else {
-                if (hasUsersWithScores()) {
+                if (withScores && hasUsersWithScores()) {
                     int scoreIfOpen = estimateScore(currentFloor, currentDirection, true);
                     int scoreIfNoOpen = estimateScore(currentFloor, currentDirection, false);
 
@@ -122,7 +138,7 @@ public class ByUser2Elevator extends CleverElevator {
 
     private boolean thereIsUsersForCurrentDirection() {
         for (int floor = currentFloor + currentDirection.incForCurrentFloor; currentDirection == Direction.UP && floor <= higherFloor || currentDirection == Direction.DOWN && floor >= lowerFloor; floor += currentDirection.incForCurrentFloor) {
-            if (waitingUsers.containsKey(floor) && peopleInsideElevator < cabinSize || toGoUsers.containsKey(floor)) {
+            if (waitingUsers.has(floor) && peopleInsideElevator < cabinSize || toGoUsers.has(floor)) {
                 return true;
             }
         }
@@ -134,24 +150,20 @@ public class ByUser2Elevator extends CleverElevator {
             return false;
         }
         for (int floor = currentFloor + currentDirection.incForCurrentFloor; currentDirection == Direction.UP && floor <= higherFloor || currentDirection == Direction.DOWN && floor >= lowerFloor; floor += currentDirection.incForCurrentFloor) {
-            if (waitingUsers.containsKey(floor)) {
-                for (User user : waitingUsers.get(floor)) {
-                    if (user.esperateScore(currentTick, currentFloor) > 0) {
-                        return true;
-                    }
-                }
+            if (waitingUsers.hasUserWithScore(floor, currentTick, Math.abs(currentFloor - floor))) {
+                return true;
             }
         }
         return false;
     }
 
     private boolean mustOpenWithNoScore() {
-        if (toGoUsers.containsKey(currentFloor)) {
+        if (toGoUsers.has(currentFloor)) {
             return true;
         }
-        if (waitingUsers.containsKey(currentFloor) && peopleInsideElevator < cabinSize) {
-            for (User user : waitingUsers.get(currentFloor)) {
-                if (user.getDirectionCalled() == currentDirection) {
+        if (peopleInsideElevator < cabinSize) {
+            for (int index = 0; index < waitingUsers.count(currentFloor); index++) {
+                if (users.getDirectionCalled(waitingUsers.get(currentFloor, index)) == currentDirection) {
                     return true;
                 }
             }
@@ -159,32 +171,25 @@ public class ByUser2Elevator extends CleverElevator {
         return false;
     }
 
-    public void addUserWaiting(User user) {
-        if (!waitingUsers.containsKey(user.getStartFloor())) {
-            waitingUsers.put(user.getStartFloor(), new LinkedList<User>());
-        }
-        waitingUsers.get(user.getStartFloor()).add(user);
+    public void addUserWaiting(int user) {
+        waitingUsers.add(users.getStartFloor(user), user);
     }
 
     public String state() {
         StringBuilder builder = new StringBuilder();
         builder.append("currentFloor(").append(currentFloor).append("),");
         builder.append("currentDirection(").append(currentDirection).append("),");
-        Map<Integer, List<String>> toGoUsersString = new HashMap<>();
-        for (Map.Entry<Integer, LinkedList<User>> entry : toGoUsers.entrySet()) {
-            toGoUsersString.put(entry.getKey(), User.userToState(entry.getValue(), currentTick, entry.getKey()));
-        }
-        builder.append("toGoUsers(").append(toGoUsersString).append("),");
-        Map<Integer, List<String>> waitingsUsersString = new HashMap<>();
-        for (Map.Entry<Integer, LinkedList<User>> entry : waitingUsers.entrySet()) {
-            waitingsUsersString.put(entry.getKey(), User.userToState(entry.getValue(), currentTick, entry.getKey()));
-        }
-        builder.append("waitingUsers(").append(waitingsUsersString).append("),");
+        builder.append("toGoUsers(").append(toGoUsers.toState(currentTick)).append("),");
+        builder.append("waitingUsers(").append(waitingUsers.toState(currentTick)).append("),");
         builder.append("peopleInsideElevator(").append(peopleInsideElevator).append(")");
         return builder.toString();
     }
 
-    public Map<Integer, LinkedList<User>> getWaitingUsers() {
+    public UserTable getUsers() {
+        return users;
+    }
+
+    public FloorUsers getWaitingUsers() {
         return waitingUsers;
     }
 
@@ -215,41 +220,49 @@ public class ByUser2Elevator extends CleverElevator {
 
         for (int floor = currentFloor; currentDirection == Direction.UP && floor <= higherFloor
                 || currentDirection == Direction.DOWN && floor >= lowerFloor; floor += currentDirection.incForCurrentFloor) {
-            if (toGoUsers.containsKey(floor)) {
-                score += estimateScoreForOneFloor(currentFloor, currentDirection, openOnCurrentFloor, floor, toGoUsers.get(floor), peopleInElevator);
+            if (currentFloor == floor && !openOnCurrentFloor) {
+                continue;
+            }
+            int penalty = Math.abs(currentFloor - floor) + (currentFloor != floor && openOnCurrentFloor ? 2 : 0);
+            if (toGoUsers.has(floor)) {
+                score += toGoUsers.sumOfTravellingScores(floor, currentTick, penalty);
+                peopleInElevator.nbUsersInElevator -= toGoUsers.count(floor);
             }
-            if (waitingUsers.containsKey(floor)) {
-                score += estimateScoreForOneFloor(currentFloor, currentDirection, openOnCurrentFloor, floor, waitingUsers.get(floor), peopleInElevator);
+            if (waitingUsers.has(floor)) {
+                int nbWaitingUsers = waitingUsers.countWaiting(floor, currentDirection);
+                if (nbWaitingUsers <= cabinSize - peopleInElevator.nbUsersInElevator) {
+                    score += waitingUsers.sumOfWaitingScores(floor, currentTick, penalty, currentDirection);
+                    peopleInElevator.nbUsersInElevator += nbWaitingUsers;
+                } else {
+                    // Cabin is full before the last user of the floor, only first users are counted.
+                    score += estimateScoreForOneFloor(currentFloor, currentDirection, openOnCurrentFloor, floor, waitingUsers, peopleInElevator);
+                }
             }
         }
         return score;
     }
 
-    private int estimateScoreForOneFloor(int currentFloor, Direction currentDirection, boolean openOnCurrentFloor, int floorOfUser, LinkedList<User> users, PeopleInElevator peopleInElevator) {
+    private int estimateScoreForOneFloor(int currentFloor, Direction currentDirection, boolean openOnCurrentFloor, int floorOfUser, FloorUsers users, PeopleInElevator peopleInElevator) {
         int score = 0;
-        if (currentDirection.floorIsOnDirection(currentFloor, floorOfUser)) {
-            if (currentFloor != floorOfUser || openOnCurrentFloor) {
-                for (User user : users) {
-                    score = estimateScoreOfOneUser(currentFloor, currentDirection, openOnCurrentFloor, floorOfUser, peopleInElevator, score, user);
-                }
-            }
+        for (int index = 0; index < users.count(floorOfUser); index++) {
+            score = estimateScoreOfOneUser(currentFloor, currentDirection, openOnCurrentFloor, floorOfUser, peopleInElevator, score, users.get(floorOfUser, index));
         }
-        return score > 0 ? score : 0;
+        return score;
     }
 
-    private int estimateScoreOfOneUser(int currentFloor, Direction currentDirection, boolean openOnCurrentFloor, int floorOfUser, PeopleInElevator peopleInElevator, int score, User user) {
+    private int estimateScoreOfOneUser(int currentFloor, Direction currentDirection, boolean openOnCurrentFloor, int floorOfUser, PeopleInElevator peopleInElevator, int score, int user) {
         boolean mustCount = false;
-        if (user.getDirectionCalled() == currentDirection && user.getDestinationFloor() == null && peopleInElevator.nbUsersInElevator < cabinSize) {
+        if (users.getDirectionCalled(user) == currentDirection && !users.hasDestination(user) && peopleInElevator.nbUsersInElevator < cabinSize) {
             mustCount = true;
             peopleInElevator.nbUsersInElevator++;
         }
 
-        if (user.getDestinationFloor() != null) {
+        if (users.hasDestination(user)) {
             mustCount = true;
             peopleInElevator.nbUsersInElevator--;
         }
         if (mustCount) {
-            int scoreOfUser = user.esperateScore(currentTick, currentFloor);
+            int scoreOfUser = users.esperateScore(user, currentTick, currentFloor);
             if (currentFloor != floorOfUser && openOnCurrentFloor) {
                 scoreOfUser = scoreOfUser - 2;
             }
@@ -260,26 +273,41 @@ public class ByUser2Elevator extends CleverElevator {
         return score;
     }
 
-    private boolean hasFloorsToGo() {
+    /**
+     * @return farthest floor of users inside in the current direction, or the current floor.
+     */
+    int farthestFloorToGo() {
+        int farthestFloor = currentFloor;
+        if (currentDirection == null || toGoUsers.isEmpty()) {
+            return farthestFloor;
+        }
+        for (int floor = currentFloor + currentDirection.incForCurrentFloor; floor >= lowerFloor && floor <= higherFloor; floor += currentDirection.incForCurrentFloor) {
+            if (toGoUsers.has(floor)) {
+                farthestFloor = floor;
+            }
+        }
+        return farthestFloor;
+    }
+
+    boolean hasFloorsToGo() {
         return !waitingUsers.isEmpty() || !toGoUsers.isEmpty();
     }
 
 
     public boolean hasUsersWithScores() {
-        if (peopleInsideElevator < cabinSize) {
-            for (Map.Entry<Integer, LinkedList<User>> entries : waitingUsers.entrySet()) {
-                for (User user : entries.getValue()) {
-                    if (user.esperateScore(currentTick, currentFloor) > 0) {
-                        return true;
-                    }
-                }
-            }
+        if (peopleInsideElevator < cabinSize && hasUserWithScore(waitingUsers)) {
+            return true;
         }
-        for (Map.Entry<Integer, LinkedList<User>> entries : toGoUsers.entrySet()) {
-            for (User user : entries.getValue()) {
-                if (user.esperateScore(currentTick, currentFloor) > 0) {
-                    return true;
-                }
+        return hasUserWithScore(toGoUsers);
+    }
+
+    private boolean hasUserWithScore(FloorUsers users) {
+        if (users.isEmpty()) {
+            return false;
+        }
+        for (int floor = lowerFloor; floor <= higherFloor; floor++) {
+            if (users.hasUserWithScore(floor, currentTick, Math.abs(currentFloor - floor))) {
+                return true;
             }
         }
         return false;
@@ -287,15 +315,26 @@ public class ByUser2Elevator extends CleverElevator {
 
     @Override
     protected void addGo(int floorToGo) {
-        User user = usersJustEntered.isEmpty()
-                ? new User(currentFloor, currentTick - 50,
+        int user = nbUsersJustEntered == 0
+                ? users.create(currentFloor, currentTick - 50,
                 currentFloor < floorToGo ? Direction.UP : Direction.DOWN)
-                : usersJustEntered.removeFirst();
-        user.go(floorToGo, currentTick);
-        if (!toGoUsers.containsKey(floorToGo)) {
-            toGoUsers.put(floorToGo, new LinkedList<User>());
+                : removeFirstUserJustEntered();
+        users.go(user, floorToGo, currentTick);
+        toGoUsers.add(floorToGo, user);
+    }
+
+    private int removeFirstUserJustEntered() {
+        int user = usersJustEntered[0];
+        nbUsersJustEntered--;
+        System.arraycopy(usersJustEntered, 1, usersJustEntered, 0, nbUsersJustEntered);
+        return user;
+    }
+
+    private void clearUsersJustEntered() {
+        for (int index = 0; index < nbUsersJustEntered; index++) {
+            users.release(usersJustEntered[index]);
         }
-        toGoUsers.get(floorToGo).addLast(user);
+        nbUsersJustEntered = 0;
     }
 
     @Override
@@ -313,20 +352,13 @@ public class ByUser2Elevator extends CleverElevator {
     public void userHasEntered() {
         super.userHasEntered();
 
-        boolean userFound = false;
-        if (waitingUsers.containsKey(currentFloor)) {
-            Iterator<User> itUsers = waitingUsers.get(currentFloor).iterator();
-
-            while (itUsers.hasNext() && !userFound) {
-                User user = itUsers.next();
-                if (user.getDirectionCalled() == currentDirection) {
-                    usersJustEntered.addLast(user);
-                    itUsers.remove();
-                    userFound = true;
+        for (int index = 0; index < waitingUsers.count(currentFloor); index++) {
+            if (users.getDirectionCalled(waitingUsers.get(currentFloor, index)) == currentDirection) {
+                if (nbUsersJustEntered == usersJustEntered.length) {
+                    usersJustEntered = Arrays.copyOf(usersJustEntered, nbUsersJustEntered * 2);
                 }
-            }
-            if (waitingUsers.get(currentFloor).isEmpty()) {
-                waitingUsers.remove(currentFloor);
+                usersJustEntered[nbUsersJustEntered++] = waitingUsers.remove(currentFloor, index);
+                return;
             }
         }
     }
@@ -334,14 +366,12 @@ public class ByUser2Elevator extends CleverElevator {
     @Override
     public void userHasExited() {
         super.userHasExited();
-        if (!toGoUsers.containsKey(currentFloor)) {
+        if (!toGoUsers.has(currentFloor)) {
             return;
         }
-        int score = toGoUsers.get(currentFloor).removeFirst().esperateScore(currentTick, currentFloor);
-        if (toGoUsers.get(currentFloor).isEmpty()) {
-            toGoUsers.remove(currentFloor);
-        }
-        currentScore += score;
+        int user = toGoUsers.removeFirst(currentFloor);
+        currentScore += users.esperateScore(user, currentTick, currentFloor);
+        users.release(user);
     }
 
     private int resetCount = 1;
@@ -358,12 +388,98 @@ public class ByUser2Elevator extends CleverElevator {
             resetCount++;
         }
         this.currentDirection = currentDirection;
+        waitingUsers.reset(lowerFloor, higherFloor);
+        toGoUsers.reset(lowerFloor, higherFloor);
         toGoUsers.clear();
-        usersJustEntered.clear();
+        clearUsersJustEntered();
     }
 
     public int getCurrentScore() {
         return currentScore;
     }
 
+    /**
+     * Copy the state of the cabin, with its users in the table of this cabin, to simulate its next ticks.
+     */
+    void copyFrom(ByUser2Elevator cabin) {
+        waitingUsers.clear();
+        toGoUsers.clear();
+        clearUsersJustEntered();
+        users.clear();
+
+        currentFloor = cabin.currentFloor;
+        currentState = cabin.currentState;
+        lowerFloor = cabin.lowerFloor;
+        higherFloor = cabin.higherFloor;
+        peopleInsideElevator = cabin.peopleInsideElevator;
+        cabinSize = cabin.cabinSize;
+        peopleActivity = cabin.peopleActivity;
+        bestFloorToWait = cabin.bestFloorToWait;
+        currentTick = cabin.currentTick;
+        currentScore = cabin.currentScore;
+        currentDirection = cabin.currentDirection;
+        resetCount = cabin.resetCount;
+
+        waitingUsers.reset(lowerFloor, higherFloor);
+        toGoUsers.reset(lowerFloor, higherFloor);
+        for (int floor = lowerFloor; floor <= higherFloor; floor++) {
+            for (int index = 0; index < cabin.waitingUsers.count(floor); index++) {
+                waitingUsers.add(floor, users.copyOf(cabin.users, cabin.waitingUsers.get(floor, index)));
+            }
+            for (int index = 0; index < cabin.toGoUsers.count(floor); index++) {
+                toGoUsers.add(floor, users.copyOf(cabin.users, cabin.toGoUsers.get(floor, index)));
+            }
+        }
+        if (usersJustEntered.length < cabin.nbUsersJustEntered) {
+            usersJustEntered = new int[cabin.usersJustEntered.length];
+        }
+        for (int index = 0; index < cabin.nbUsersJustEntered; index++) {
+            usersJustEntered[index] = users.copyOf(cabin.users, cabin.usersJustEntered[index]);
+        }
+        nbUsersJustEntered = cabin.nbUsersJustEntered;
+    }
+
+    /**
+     * Play a command chosen by a planner instead of the one of the algorithm, the cabin must be closed.
+     * Open commands and moves also set the direction of the cabin.
+     */
+    Command playCommand(Command command) {
+        currentTick++;
+        switch (command) {
+            case OPEN_UP:
+            case OPEN_DOWN:
+                currentDirection = command == Command.OPEN_UP ? Direction.UP : Direction.DOWN;
+                currentState = State.OPEN;
+                break;
+            case UP:
+            case DOWN:
+                currentDirection = command == Command.UP ? Direction.UP : Direction.DOWN;
+                currentFloor += currentDirection.incForCurrentFloor;
+                break;
+            default:
+                break;
+        }
+        peopleActivity = false;
+        return command;
+    }
+
+    /**
+     * Simulate the game when doors are just opened : users of the cabin exit on their floor,
+     * then waiting users of the direction enter while there is room, and go to a random floor of their direction.
+     */
+    void simulateUsersOnOpen(Random random) {
+        while (toGoUsers.has(currentFloor)) {
+            userHasExited();
+        }
+        int nbFloorsOnDirection = currentDirection == Direction.UP ? higherFloor - currentFloor : currentFloor - lowerFloor;
+        if (nbFloorsOnDirection == 0) {
+            return;
+        }
+        int nbWaiting = waitingUsers.countWaiting(currentFloor, currentDirection);
+        for (int index = 0; index < nbWaiting && peopleInsideElevator < cabinSize; index++) {
+            userHasEntered();
+            go(currentFloor + currentDirection.incForCurrentFloor * (1 + random.nextInt(nbFloorsOnDirection)));
+        }
+    }
+
 }
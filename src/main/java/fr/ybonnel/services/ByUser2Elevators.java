@@ -19,31 +19,58 @@ package fr.ybonnel.services;
 import fr.ybonnel.services.model.Command;
 import fr.ybonnel.services.model.Commands;
 import fr.ybonnel.services.model.Direction;
-import fr.ybonnel.services.model.User;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import fr.ybonnel.services.model.UserTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.Set;
 import java.util.TreeMap;
 
-public class ByUser2Elevators implements Elevators {
+public class ByUser2Elevators implements SpeculativeElevators, DeadlineElevators {
 
-    private Map<Integer, Integer> waitingUsersCount = new HashMap<>();
+    private FloorCounts waitingUsersCount = new FloorCounts();
     private List<ByUser2Elevator> elevators = new ArrayList<>();
+    private final UserTable users = new UserTable();
+    private CabinsByFloor cabinsByFloor = new CabinsByFloor();
+
+    // State of cabins seen by the last assignment of waiting users.
+    private boolean assignmentUpToDate = false;
+    private int[] assignedFloorOfCabins = new int[0];
+    private boolean[] assignedCabinsHasScores = new boolean[0];
+    private int[] assignedBestFloorOfCabins = new int[0];
+    private boolean[] cabinsChanged = new boolean[0];
+    private boolean[] cabinsChangedDuringAssignment = new boolean[0];
+    private int[] previousFloorOfCabins = new int[0];
+    private int[] distanceToNearestCabin = new int[1];
+    // Floors (offset by lowerFloor) where waiting users must be reconsidered.
+    private boolean[] floorsToReconsider = new boolean[1];
+    private boolean newUsersToAssign = false;
+    // Assignment stopped at a deadline, marked floors are still to reconsider from this cabin.
+    private boolean assignmentInterrupted = false;
+    private int firstCabinToAssign = 0;
 
     private List<Integer> peopleByTick = new ArrayList<>();
     private Map<Integer, Integer> callsByFloor = new TreeMap<>();
-    private DescriptiveStatistics statsCalls = new DescriptiveStatistics(500);
+    private CallsWindow statsCalls = new CallsWindow(500);
+    private double[] percentilesOfCabins = new double[0];
+    private double[] bestFloorsToWait = new double[0];
+    private boolean[] bestFloorToWaitAssigned = new boolean[0];
+    private ArrivalForecast arrivalForecast;
+    private double[] forecastWeights = new double[0];
+    private MatchingAssignment matchingAssignment;
+    // Moves of the matching are recorded during a speculation.
+    private final MatchingAssignment.Moves movesOfMatching = new MatchingAssignment.Moves() {
+        @Override
+        public void move(int floor, int index, int fromCabin, int toCabin) {
+            if (speculated) {
+                recordMoveOfSpeculation(floor, index, fromCabin, toCabin);
+            }
+        }
+    };
     private int maxWaitingsMean = 10;
     private int lowerFloor;
     private int higherFlor;
@@ -51,10 +78,35 @@ public class ByUser2Elevators implements Elevators {
 
 
     private static final Logger logger = LoggerFactory.getLogger(ByUser2Elevators.class);
+    private final RequestLogger requestLogger = RequestLogger.getInstance();
 
     private int currentTick = -1;
     private boolean mustReset = true;
     private boolean log = true;
+    // Assignment prepared before the tick by prepareNextCommands(), undone if an event arrives first.
+    private boolean speculated = false;
+    // Moves of the speculation : floor, index in the old cabin, old cabin, new cabin.
+    private int[] movesOfSpeculation = new int[64];
+    private int nbMovesOfSpeculation = 0;
+    // State of the assignment before the speculation.
+    private int[] bestFloorOfCabinsBeforeSpeculation = new int[0];
+    private int[] assignedFloorOfCabinsBeforeSpeculation = new int[0];
+    private boolean[] assignedCabinsHasScoresBeforeSpeculation = new boolean[0];
+    private int[] assignedBestFloorOfCabinsBeforeSpeculation = new int[0];
+    private boolean[] cabinsChangedDuringAssignmentBeforeSpeculation = new boolean[0];
+    private boolean[] floorsToReconsiderBeforeSpeculation = new boolean[0];
+    private boolean newUsersToAssignBeforeSpeculation;
+    private boolean assignmentUpToDateBeforeSpeculation;
+    private boolean assignmentInterruptedBeforeSpeculation;
+    private int firstCabinToAssignBeforeSpeculation;
+    private int[] speculatedBestFloorOfCabins = new int[0];
+
+    private static final Commands FORCE_RESET = new Commands(Collections.singletonList(Command.FORCERESET));
+    private final List<Command> commands = new ArrayList<>();
+    private final Commands commandsOfTick = new Commands(commands);
+
+    private static final int MAX_PEOPLE_BY_TICK_IN_STATUS = 500;
+    private volatile ElevatorsStatus status = ElevatorsStatus.EMPTY;
 
     public ByUser2Elevators() {
     }
@@ -65,84 +117,391 @@ public class ByUser2Elevators implements Elevators {
         this.oldAlgo = oldAlgo;
     }
 
+    /**
+     * Best floors to wait also follow the arrivals forecasted for next ticks,
+     * so idle cabins are spread before a rush arrives.
+     */
+    public void setArrivalForecast(ArrivalForecast arrivalForecast) {
+        this.arrivalForecast = arrivalForecast;
+    }
+
+    /**
+     * Waiting users are assigned with a min cost matching on ETA and free places of cabins,
+     * instead of the nearest cabin of each user.
+     */
+    public void setMatchingAssignment(boolean matching) {
+        if (matching) {
+            matchingAssignment = new MatchingAssignment();
+            matchingAssignment.reset(lowerFloor, higherFlor, elevators.size());
+        } else {
+            matchingAssignment = null;
+        }
+        assignmentUpToDate = false;
+    }
+
     @Override
     public void logState() {
         if (log) {
             int index = 0;
             for (ByUser2Elevator elevator : elevators) {
-                logger.info("Elevator {} : {}", index++, elevator.state());
+                requestLogger.info(logger, "Elevator {} : {}", index++, elevator.state());
             }
         }
     }
 
+    /**
+     * The returned commands are reused on each tick, they are valid until the next call.
+     */
     @Override
     public Commands nextCommands() {
+        return nextCommands(Long.MAX_VALUE);
+    }
+
+    /**
+     * Waiting users are assigned and cabins estimate scores until the deadline.
+     * After it, the assignment is continued on next ticks, and cabins use their cheap command.
+     */
+    @Override
+    public Commands nextCommands(long deadline) {
         if (mustReset) {
-            return new Commands(Arrays.asList(Command.FORCERESET));
+            return FORCE_RESET;
         }
         currentTick++;
         peopleByTick.add(0);
+        if (arrivalForecast != null) {
+            arrivalForecast.tick(currentTick, currentTick > 0 ? peopleByTick.get(currentTick - 1) : 0);
+        }
 
-        setBestFloorToWaitToElevators();
-        assignWaitingsUsers();
-
+        prepareNextCommands(deadline);
 
         logState();
 
-        DescriptiveStatistics stats = new DescriptiveStatistics();
-        for (int floor = lowerFloor; floor <= higherFlor; floor++) {
-            stats.addValue(waitingUsersCount.containsKey(floor) ? waitingUsersCount.get(floor) : 0);
-        }
-        if (stats.getMean() > maxWaitingsMean) {
-            return new Commands(Arrays.asList(Command.FORCERESET));
+        if (waitingUsersCount.getMean() > maxWaitingsMean) {
+            return FORCE_RESET;
         }
 
-        List<Command> commands = new ArrayList<>();
-        for (ByUser2Elevator elevator : elevators) {
-            commands.add(elevator.nextCommand());
+        commands.clear();
+        addNextCommands(elevators, commands, deadline);
+        for (int cabinIndex = 0; cabinIndex < elevators.size(); cabinIndex++) {
+            cabinsByFloor.move(cabinIndex, elevators.get(cabinIndex).getCurrentFloor());
         }
         if (log) {
-            logger.info(commands.toString());
+            requestLogger.info(logger, commands.toString());
             logState();
         }
-        return new Commands(commands);
+        publishStatus();
+        return commandsOfTick;
     }
 
-    private void assignWaitingsUsers() {
-
+    /**
+     * Add the command of each cabin, once waiting users are assigned.
+     * @param deadline deadline of refinements of commands, in {@link System#nanoTime()} time.
+     */
+    protected void addNextCommands(List<ByUser2Elevator> elevators, List<Command> commands, long deadline) {
         for (ByUser2Elevator elevator : elevators) {
-            Set<Integer> waitingFloorsToRemove = new HashSet<>();
-            for (Map.Entry<Integer, LinkedList<User>> users : elevator.getWaitingUsers().entrySet()) {
-
-                Iterator<User> itUsers = users.getValue().iterator();
-                while (itUsers.hasNext()) {
-                    User user = itUsers.next();
-                    ByUser2Elevator bestElevator = getBestElevatorForUser(user);
-                    if (bestElevator != elevator) {
-                        itUsers.remove();
-                        bestElevator.addUserWaiting(user);
-                    }
+            commands.add(isPassed(deadline) ? elevator.nextCommandWithoutScores() : elevator.nextCommand());
+        }
+    }
+
+    protected static boolean isPassed(long deadline) {
+        return deadline != Long.MAX_VALUE && System.nanoTime() >= deadline;
+    }
+
+    /**
+     * Assign waiting users before the tick.
+     * The state before is saved, and each move recorded, so an event arriving before the tick
+     * finds the state it would have found without the speculation.
+     */
+    @Override
+    public void prepareNextCommands() {
+        if (mustReset || speculated) {
+            return;
+        }
+        saveStateBeforeSpeculation();
+        speculated = true;
+        setBestFloorToWaitToElevators();
+        assignWaitingsUsers(Long.MAX_VALUE);
+        int nbCabins = elevators.size();
+        if (speculatedBestFloorOfCabins.length != nbCabins) {
+            speculatedBestFloorOfCabins = new int[nbCabins];
+        }
+        for (int cabinIndex = 0; cabinIndex < nbCabins; cabinIndex++) {
+            speculatedBestFloorOfCabins[cabinIndex] = elevators.get(cabinIndex).getBestFloorToWait();
+        }
+    }
+
+    /**
+     * The speculation is kept only if best floors to wait of the tick are the ones it used
+     * (they follow the tick with a forecast), else it is undone and the assignment is done again.
+     */
+    private void prepareNextCommands(long deadline) {
+        if (speculated) {
+            setBestFloorToWaitToElevators();
+            if (hasBestFloorsOfSpeculation()) {
+                speculated = false;
+                nbMovesOfSpeculation = 0;
+                return;
+            }
+            rollbackSpeculation();
+        }
+        if (isPassed(deadline)) {
+            return;
+        }
+        setBestFloorToWaitToElevators();
+        assignWaitingsUsers(deadline);
+    }
+
+    private boolean hasBestFloorsOfSpeculation() {
+        for (int cabinIndex = 0; cabinIndex < elevators.size(); cabinIndex++) {
+            if (elevators.get(cabinIndex).getBestFloorToWait() != speculatedBestFloorOfCabins[cabinIndex]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void saveStateBeforeSpeculation() {
+        int nbCabins = elevators.size();
+        if (bestFloorOfCabinsBeforeSpeculation.length != nbCabins) {
+            bestFloorOfCabinsBeforeSpeculation = new int[nbCabins];
+        }
+        for (int cabinIndex = 0; cabinIndex < nbCabins; cabinIndex++) {
+            bestFloorOfCabinsBeforeSpeculation[cabinIndex] = elevators.get(cabinIndex).getBestFloorToWait();
+        }
+        assignedFloorOfCabinsBeforeSpeculation = copy(assignedFloorOfCabins, assignedFloorOfCabinsBeforeSpeculation);
+        assignedCabinsHasScoresBeforeSpeculation = copy(assignedCabinsHasScores, assignedCabinsHasScoresBeforeSpeculation);
+        assignedBestFloorOfCabinsBeforeSpeculation = copy(assignedBestFloorOfCabins, assignedBestFloorOfCabinsBeforeSpeculation);
+        cabinsChangedDuringAssignmentBeforeSpeculation = copy(cabinsChangedDuringAssignment, cabinsChangedDuringAssignmentBeforeSpeculation);
+        floorsToReconsiderBeforeSpeculation = copy(floorsToReconsider, floorsToReconsiderBeforeSpeculation);
+        newUsersToAssignBeforeSpeculation = newUsersToAssign;
+        assignmentUpToDateBeforeSpeculation = assignmentUpToDate;
+        assignmentInterruptedBeforeSpeculation = assignmentInterrupted;
+        firstCabinToAssignBeforeSpeculation = firstCabinToAssign;
+        nbMovesOfSpeculation = 0;
+    }
+
+    /**
+     * Undo the moves of the speculation from the last one, so each user gets back its cabin and its index,
+     * and restore the state of the assignment.
+     */
+    private void rollbackSpeculation() {
+        if (!speculated) {
+            return;
+        }
+        for (int move = nbMovesOfSpeculation - 1; move >= 0; move--) {
+            int floor = movesOfSpeculation[4 * move];
+            int index = movesOfSpeculation[4 * move + 1];
+            FloorUsers usersOfNewCabin = elevators.get(movesOfSpeculation[4 * move + 3]).getWaitingUsers();
+            int user = usersOfNewCabin.remove(floor, usersOfNewCabin.count(floor) - 1);
+            elevators.get(movesOfSpeculation[4 * move + 2]).getWaitingUsers().insert(floor, index, user);
+        }
+        nbMovesOfSpeculation = 0;
+        for (int cabinIndex = 0; cabinIndex < elevators.size(); cabinIndex++) {
+            elevators.get(cabinIndex).setBestFloorToWait(bestFloorOfCabinsBeforeSpeculation[cabinIndex]);
+        }
+        assignedFloorOfCabins = copy(assignedFloorOfCabinsBeforeSpeculation, assignedFloorOfCabins);
+        assignedCabinsHasScores = copy(assignedCabinsHasScoresBeforeSpeculation, assignedCabinsHasScores);
+        assignedBestFloorOfCabins = copy(assignedBestFloorOfCabinsBeforeSpeculation, assignedBestFloorOfCabins);
+        cabinsChangedDuringAssignment = copy(cabinsChangedDuringAssignmentBeforeSpeculation, cabinsChangedDuringAssignment);
+        floorsToReconsider = copy(floorsToReconsiderBeforeSpeculation, floorsToReconsider);
+        newUsersToAssign = newUsersToAssignBeforeSpeculation;
+        assignmentUpToDate = assignmentUpToDateBeforeSpeculation;
+        assignmentInterrupted = assignmentInterruptedBeforeSpeculation;
+        firstCabinToAssign = firstCabinToAssignBeforeSpeculation;
+        speculated = false;
+    }
+
+    private void recordMoveOfSpeculation(int floor, int index, int oldCabin, int newCabin) {
+        if (4 * nbMovesOfSpeculation == movesOfSpeculation.length) {
+            movesOfSpeculation = Arrays.copyOf(movesOfSpeculation, movesOfSpeculation.length * 2);
+        }
+        movesOfSpeculation[4 * nbMovesOfSpeculation] = floor;
+        movesOfSpeculation[4 * nbMovesOfSpeculation + 1] = index;
+        movesOfSpeculation[4 * nbMovesOfSpeculation + 2] = oldCabin;
+        movesOfSpeculation[4 * nbMovesOfSpeculation + 3] = newCabin;
+        nbMovesOfSpeculation++;
+    }
+
+    /**
+     * @return a copy of source, in target if it has the same length.
+     */
+    private static int[] copy(int[] source, int[] target) {
+        if (target.length != source.length) {
+            return source.clone();
+        }
+        System.arraycopy(source, 0, target, 0, source.length);
+        return target;
+    }
+
+    private static boolean[] copy(boolean[] source, boolean[] target) {
+        if (target.length != source.length) {
+            return source.clone();
+        }
+        System.arraycopy(source, 0, target, 0, source.length);
+        return target;
+    }
+
+    /**
+     * Move waiting users to their best cabin.
+     * Only users of floors whose nearest cabins changed (floor, users with scores or best floor to wait)
+     * since last assignment, or with new users, are reconsidered : others would stay in their cabin.
+     * Users always have a cabin, so the assignment can stop at the deadline : users of floors not reconsidered
+     * stay in their cabin until the next assignment, which starts with the cabin not finished.
+     */
+    private void assignWaitingsUsers(long deadline) {
+        if (!markFloorsToReconsider()) {
+            return;
+        }
+        if (matchingAssignment != null) {
+            assignWithMatching(deadline);
+            return;
+        }
+        int firstCabin = assignmentInterrupted && firstCabinToAssign < elevators.size() ? firstCabinToAssign : 0;
+        assignmentInterrupted = false;
+
+        for (int nbCabinsAssigned = 0; nbCabinsAssigned < elevators.size(); nbCabinsAssigned++) {
+            int cabinIndex = (firstCabin + nbCabinsAssigned) % elevators.size();
+            FloorUsers waitingUsers = elevators.get(cabinIndex).getWaitingUsers();
+            if (waitingUsers.isEmpty()) {
+                continue;
+            }
+            for (int floor = lowerFloor; floor <= higherFlor; floor++) {
+                if (!floorsToReconsider[floor - lowerFloor] || !waitingUsers.has(floor)) {
+                    continue;
                 }
-                if (users.getValue().isEmpty()) {
-                    waitingFloorsToRemove.add(users.getKey());
+                int index = 0;
+                while (index < waitingUsers.count(floor)) {
+                    if (isPassed(deadline)) {
+                        assignmentInterrupted = true;
+                        firstCabinToAssign = cabinIndex;
+                        return;
+                    }
+                    int user = waitingUsers.get(floor, index);
+                    int bestCabin = getBestCabinForUser(user);
+                    if (bestCabin != cabinIndex) {
+                        if (speculated) {
+                            recordMoveOfSpeculation(floor, index, cabinIndex, bestCabin);
+                        }
+                        waitingUsers.remove(floor, index);
+                        elevators.get(bestCabin).addUserWaiting(user);
+                        checkCabinDuringAssignment(cabinIndex);
+                        checkCabinDuringAssignment(bestCabin);
+                    } else {
+                        index++;
+                    }
                 }
             }
-            for (int floor : waitingFloorsToRemove) {
-                elevator.getWaitingUsers().remove(floor);
+        }
+
+        Arrays.fill(floorsToReconsider, false);
+        newUsersToAssign = false;
+        assignmentUpToDate = true;
+    }
+
+    /**
+     * All waiting users are reconsidered by the matching, the last solution is kept if it stops at the deadline.
+     * Moves are recorded like the ones of the nearest cabin, so a speculation can be undone.
+     */
+    private void assignWithMatching(long deadline) {
+        boolean optimal = matchingAssignment.assign(elevators, deadline, movesOfMatching);
+        for (int cabinIndex = 0; cabinIndex < elevators.size(); cabinIndex++) {
+            checkCabinDuringAssignment(cabinIndex);
+        }
+        if (!optimal) {
+            assignmentInterrupted = true;
+            return;
+        }
+        Arrays.fill(floorsToReconsider, false);
+        newUsersToAssign = false;
+        assignmentUpToDate = true;
+    }
+
+    /**
+     * Compare cabins with their state at last assignment.
+     * @return false if nothing changed, so no waiting user can change of cabin.
+     */
+    private boolean markFloorsToReconsider() {
+        int nbCabins = elevators.size();
+        if (assignedFloorOfCabins.length != nbCabins) {
+            assignedFloorOfCabins = new int[nbCabins];
+            assignedCabinsHasScores = new boolean[nbCabins];
+            assignedBestFloorOfCabins = new int[nbCabins];
+            cabinsChanged = new boolean[nbCabins];
+            cabinsChangedDuringAssignment = new boolean[nbCabins];
+            previousFloorOfCabins = new int[nbCabins];
+            assignmentUpToDate = false;
+        }
+
+        boolean hasChanges = newUsersToAssign || assignmentInterrupted || !assignmentUpToDate;
+        for (int cabinIndex = 0; cabinIndex < nbCabins; cabinIndex++) {
+            ByUser2Elevator elevator = elevators.get(cabinIndex);
+            int floor = elevator.getCurrentFloor();
+            boolean hasScores = elevator.hasUsersWithScores();
+            int bestFloorToWait = elevator.getBestFloorToWait();
+            cabinsChanged[cabinIndex] = !assignmentUpToDate
+                    || cabinsChangedDuringAssignment[cabinIndex]
+                    || floor != assignedFloorOfCabins[cabinIndex]
+                    || hasScores != assignedCabinsHasScores[cabinIndex]
+                    || bestFloorToWait != assignedBestFloorOfCabins[cabinIndex];
+            hasChanges |= cabinsChanged[cabinIndex];
+            previousFloorOfCabins[cabinIndex] = assignmentUpToDate ? assignedFloorOfCabins[cabinIndex] : floor;
+            assignedFloorOfCabins[cabinIndex] = floor;
+            assignedCabinsHasScores[cabinIndex] = hasScores;
+            assignedBestFloorOfCabins[cabinIndex] = bestFloorToWait;
+            cabinsChangedDuringAssignment[cabinIndex] = false;
+        }
+        if (!hasChanges) {
+            return false;
+        }
+
+        if (!assignmentUpToDate) {
+            Arrays.fill(floorsToReconsider, true);
+            return true;
+        }
+        for (int floor = lowerFloor; floor <= higherFlor; floor++) {
+            distanceToNearestCabin[floor - lowerFloor] = cabinsByFloor.distanceToNearest(floor);
+        }
+        for (int cabinIndex = 0; cabinIndex < nbCabins; cabinIndex++) {
+            if (cabinsChanged[cabinIndex]) {
+                markFloorsNearOf(previousFloorOfCabins[cabinIndex]);
+                markFloorsNearOf(assignedFloorOfCabins[cabinIndex]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A cabin on cabinFloor is compared for users of a floor only if no other cabin is nearer.
+     */
+    private void markFloorsNearOf(int cabinFloor) {
+        for (int floor = lowerFloor; floor <= higherFlor; floor++) {
+            if (!floorsToReconsider[floor - lowerFloor]
+                    && Math.abs(cabinFloor - floor) <= distanceToNearestCabin[floor - lowerFloor]) {
+                floorsToReconsider[floor - lowerFloor] = true;
             }
         }
     }
 
+    /**
+     * Users with scores of a cabin can change when a user is moved,
+     * users already seen during this assignment will be reconsidered on next one.
+     */
+    private void checkCabinDuringAssignment(int cabinIndex) {
+        if (elevators.get(cabinIndex).hasUsersWithScores() != assignedCabinsHasScores[cabinIndex]
+                && !cabinsChangedDuringAssignment[cabinIndex]) {
+            cabinsChangedDuringAssignment[cabinIndex] = true;
+            markFloorsNearOf(assignedFloorOfCabins[cabinIndex]);
+        }
+    }
+
     @Override
     public void call(int floor, String to) {
+        rollbackSpeculation();
         if (currentTick >= 0 && currentTick < peopleByTick.size()) {
             peopleByTick.set(currentTick, peopleByTick.get(currentTick)+1);
         }
 
-        if (!waitingUsersCount.containsKey(floor)) {
-            waitingUsersCount.put(floor, 0);
-        }
-        waitingUsersCount.put(floor, waitingUsersCount.get(floor) + 1);
+        waitingUsersCount.increment(floor);
 
         if (!callsByFloor.containsKey(floor)) {
             callsByFloor.put(floor, 0);
@@ -150,70 +509,102 @@ public class ByUser2Elevators implements Elevators {
         callsByFloor.put(floor, callsByFloor.get(floor) + 1);
 
         statsCalls.addValue(floor);
+        if (arrivalForecast != null) {
+            arrivalForecast.call(floor);
+        }
+
+        if (floor >= lowerFloor && floor <= higherFlor) {
+            floorsToReconsider[floor - lowerFloor] = true;
+            newUsersToAssign = true;
+        }
 
-        User user = new User(floor, currentTick, Direction.valueOf(to));
+        int user = users.create(floor, currentTick, Direction.valueOf(to));
 
         getBestElevatorForUser(user).addUserWaiting(user);
     }
 
-    private ByUser2Elevator getBestElevatorForUser(User user) {
+    private ByUser2Elevator getBestElevatorForUser(int user) {
+        int bestCabin = getBestCabinForUser(user);
+        return bestCabin == -1 ? null : elevators.get(bestCabin);
+    }
+
+    private int getBestCabinForUser(int user) {
         // Try to find the nearest elevator.
-        ByUser2Elevator nearestElevator = null;
-        for (ByUser2Elevator elevator : elevators) {
-            if (nearestElevator == null || Math.abs(elevator.currentFloor - user.getStartFloor()) < Math.abs(nearestElevator.currentFloor - user.getStartFloor())) {
-                nearestElevator = elevator;
-            } else if (Math.abs(elevator.currentFloor - user.getStartFloor()) == Math.abs(nearestElevator.currentFloor - user.getStartFloor())) {
-                if (elevator.hasUsersWithScores()
-                        != nearestElevator.hasUsersWithScores()) {
-                    nearestElevator = elevator.hasUsersWithScores() ? nearestElevator : elevator;
-                } else if (Math.abs(elevator.getBestFloorToWait() - user.getStartFloor()) < Math.abs(nearestElevator.getBestFloorToWait() - user.getStartFloor())) {
-                    nearestElevator = elevator;
-                }
+        int nbNearest = cabinsByFloor.findNearest(users.getStartFloor(user));
+        int nearestCabin = -1;
+        for (int index = 0; index < nbNearest; index++) {
+            int cabin = cabinsByFloor.getNearest(index);
+            if (nearestCabin == -1 || isBetterForUser(cabin, nearestCabin, user)) {
+                nearestCabin = cabin;
             }
         }
 
-        return nearestElevator;
+        return nearestCabin;
+    }
+
+    /**
+     * Between two cabins at same distance of user :
+     * the one without users with scores, then the one waiting nearest of user, then the first one.
+     */
+    private boolean isBetterForUser(int cabin, int otherCabin, int user) {
+        ByUser2Elevator elevator = elevators.get(cabin);
+        ByUser2Elevator otherElevator = elevators.get(otherCabin);
+        if (elevator.hasUsersWithScores() != otherElevator.hasUsersWithScores()) {
+            return !elevator.hasUsersWithScores();
+        }
+        int startFloor = users.getStartFloor(user);
+        int distanceOfBestFloor = Math.abs(elevator.getBestFloorToWait() - startFloor);
+        int otherDistanceOfBestFloor = Math.abs(otherElevator.getBestFloorToWait() - startFloor);
+        if (distanceOfBestFloor != otherDistanceOfBestFloor) {
+            return distanceOfBestFloor < otherDistanceOfBestFloor;
+        }
+        return cabin < otherCabin;
     }
 
     @Override
     public void go(int cabin, int floorToGo) {
+        rollbackSpeculation();
         elevators.get(cabin).go(floorToGo);
     }
 
     @Override
     public void userHasEntered(int cabin) {
-        int floorOfCabin = elevators.get(cabin).getCurrentFloor();
-        if (!waitingUsersCount.containsKey(floorOfCabin)) {
-            waitingUsersCount.put(floorOfCabin, 0);
-        }
-        waitingUsersCount.put(floorOfCabin, waitingUsersCount.get(floorOfCabin)-1);
+        rollbackSpeculation();
+        waitingUsersCount.decrement(elevators.get(cabin).getCurrentFloor());
         elevators.get(cabin).userHasEntered();
     }
 
     @Override
     public void userHasExited(int cabin) {
+        rollbackSpeculation();
         elevators.get(cabin).userHasExited();
     }
 
     @Override
     public void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+        rollbackSpeculation();
         mustReset = false;
-        waitingUsersCount.clear();
+        waitingUsersCount.reset(lowerFloor, higherFloor);
         this.lowerFloor = lowerFloor;
         this.higherFlor = higherFloor;
         callsByFloor.clear();
         if (cabinCount != elevators.size()) {
             elevators.clear();
+            users.clear();
             for (int cabinIndex = 0; cabinIndex < cabinCount; cabinIndex++) {
-                elevators.add(new ByUser2Elevator(oldAlgo));
+                elevators.add(new ByUser2Elevator(oldAlgo, users));
             }
         }
 
-        if (cause.startsWith("all elevators are at floor")) {
+        boolean newGame = cause.startsWith("all elevators are at floor");
+        if (newGame) {
             currentTick = -1;
             peopleByTick.clear();
             statsCalls.clear();
         }
+        if (arrivalForecast != null) {
+            arrivalForecast.reset(lowerFloor, higherFloor, newGame);
+        }
 
         if (statsCalls.getN() == 0) {
             for (int floor = lowerFloor; floor <= higherFloor; floor++) {
@@ -225,35 +616,89 @@ public class ByUser2Elevators implements Elevators {
             elevator.reset(cause, lowerFloor, higherFloor, cabinSize, currentDirection);
             currentDirection = currentDirection.getOtherDirection();
         }
+        cabinsByFloor.reset(lowerFloor, higherFloor, elevators);
+        if (matchingAssignment != null) {
+            matchingAssignment.reset(lowerFloor, higherFloor, elevators.size());
+        }
+        floorsToReconsider = new boolean[higherFloor - lowerFloor + 1];
+        distanceToNearestCabin = new int[higherFloor - lowerFloor + 1];
+        newUsersToAssign = false;
+        assignmentInterrupted = false;
+        assignmentUpToDate = false;
         setBestFloorToWaitToElevators();
+        publishStatus();
+    }
+
+    private void publishStatus() {
+        status = ElevatorsStatus.of(currentTick, elevators, callsByFloor, peopleByTick, MAX_PEOPLE_BY_TICK_IN_STATUS);
+    }
+
+    /**
+     * @return last snapshot published by the dispatcher, can be read from any thread.
+     */
+    public ElevatorsStatus getStatus() {
+        return status;
     }
 
     private void setBestFloorToWaitToElevators() {
-        LinkedList<Integer> bestFloorsToWait = new LinkedList<>();
-        for (int cabinIndex = 0; cabinIndex < elevators.size(); cabinIndex++) {
-            double percentile = ((double)cabinIndex + 0.5)/ ((double)elevators.size());
-            int bestFloorToWait = (int) Math.round(statsCalls.getPercentile(percentile*100));
-            bestFloorsToWait.add(bestFloorToWait);
+        int nbCabins = elevators.size();
+        if (percentilesOfCabins.length != nbCabins) {
+            percentilesOfCabins = new double[nbCabins];
+            bestFloorsToWait = new double[nbCabins];
+            bestFloorToWaitAssigned = new boolean[nbCabins];
+            for (int cabinIndex = 0; cabinIndex < nbCabins; cabinIndex++) {
+                double percentile = ((double)cabinIndex + 0.5)/ ((double)nbCabins);
+                percentilesOfCabins[cabinIndex] = percentile*100;
+            }
+        }
+        if (!forecastBestFloorsToWait()) {
+            statsCalls.getPercentiles(percentilesOfCabins, bestFloorsToWait);
         }
 
-        List<ByUser2Elevator> elevatorsToSet = new LinkedList<>(elevators);
+        for (int cabinIndex = 0; cabinIndex < nbCabins; cabinIndex++) {
+            bestFloorToWaitAssigned[cabinIndex] = false;
+        }
+        for (double bestFloorToWait : bestFloorsToWait) {
+            assignBestFloorToElevator((int) Math.round(bestFloorToWait));
+        }
+    }
 
-        for (int bestFloorToWait : bestFloorsToWait) {
-            assignBestFloorToElevator(elevatorsToSet, bestFloorToWait);
+    /**
+     * Percentiles of floors of calls expected during the horizon :
+     * recent calls at the recent rate, plus arrivals forecasted by the profile.
+     * @return false if there is no forecast for the horizon.
+     */
+    private boolean forecastBestFloorsToWait() {
+        if (arrivalForecast == null) {
+            return false;
+        }
+        int nbFloors = higherFlor - lowerFloor + 1;
+        if (forecastWeights.length != nbFloors) {
+            forecastWeights = new double[nbFloors];
         }
+        Arrays.fill(forecastWeights, 0);
+        if (!arrivalForecast.forecast(currentTick + 1, forecastWeights)) {
+            return false;
+        }
+        statsCalls.addFrequencies(arrivalForecast.getRecentRate() * arrivalForecast.getHorizon(), forecastWeights, lowerFloor);
+        ArrivalForecast.getPercentiles(forecastWeights, lowerFloor, percentilesOfCabins, bestFloorsToWait);
+        return true;
     }
 
-    private void assignBestFloorToElevator(List<ByUser2Elevator> elevatorsToSet, int bestFloorToWait) {
-        ByUser2Elevator nearestElevator = null;
-        for (ByUser2Elevator elevator : elevatorsToSet) {
-            if (nearestElevator == null || Math.abs(elevator.currentFloor - bestFloorToWait) < Math.abs(nearestElevator.currentFloor - bestFloorToWait)) {
-                nearestElevator = elevator;
+    private void assignBestFloorToElevator(int bestFloorToWait) {
+        int nearestCabin = -1;
+        for (int cabinIndex = 0; cabinIndex < elevators.size(); cabinIndex++) {
+            if (bestFloorToWaitAssigned[cabinIndex]) {
+                continue;
+            }
+            if (nearestCabin == -1 || Math.abs(elevators.get(cabinIndex).currentFloor - bestFloorToWait) < Math.abs(elevators.get(nearestCabin).currentFloor - bestFloorToWait)) {
+                nearestCabin = cabinIndex;
             }
         }
 
-        if (nearestElevator != null) {
-            nearestElevator.setBestFloorToWait(bestFloorToWait);
-            elevatorsToSet.remove(nearestElevator);
+        if (nearestCabin != -1) {
+            elevators.get(nearestCabin).setBestFloorToWait(bestFloorToWait);
+            bestFloorToWaitAssigned[nearestCabin] = true;
         }
     }
 
@@ -33,8 +33,9 @@ public class ByUserElevator extends CleverElevator {
     private static final Logger logger = LoggerFactory.getLogger(ByUserElevator.class);
     private boolean hasScore = true;
 
-    public ByUserElevator(Map<Integer, LinkedList<User>> waitingUsers, Direction currentDirection) {
+    public ByUserElevator(Map<Integer, LinkedList<User>> waitingUsers, FloorCounts waitingUsersCount, Direction currentDirection) {
         this.waitingUsers = waitingUsers;
+        this.waitingUsersCount = waitingUsersCount;
         this.currentDirection = currentDirection;
     }
 
@@ -57,6 +58,7 @@ public class ByUserElevator extends CleverElevator {
     }
 
     private Map<Integer, LinkedList<User>> waitingUsers = new HashMap<>();
+    private final FloorCounts waitingUsersCount;
     private Map<Integer, LinkedList<User>> toGoUsers = new HashMap<>();
 
     private LinkedList<User> usersJustEntered = new LinkedList<>();
@@ -120,6 +122,7 @@ public class ByUserElevator extends CleverElevator {
                     }
                     // Bizare, on supprime les users qui devait bouger.
                     waitingUsers.remove(currentFloor);
+                    waitingUsersCount.clear(currentFloor);
                     toGoUsers.remove(currentFloor);
                 }
                 return close();
@@ -321,6 +324,7 @@ public class ByUserElevator extends CleverElevator {
             if (user.getDirectionCalled() == currentDirection) {
                 usersJustEntered.addLast(user);
                 itUsers.remove();
+                waitingUsersCount.decrement(currentFloor);
                 userFound = true;
             }
         }
@@ -20,7 +20,6 @@ import fr.ybonnel.services.model.Command;
 import fr.ybonnel.services.model.Commands;
 import fr.ybonnel.services.model.Direction;
 import fr.ybonnel.services.model.User;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +35,7 @@ import java.util.Map;
 public class ByUserElevators implements Elevators {
 
     private Map<Integer, LinkedList<User>> waitingUsers = new HashMap<>();
+    private FloorCounts waitingUsersCount = new FloorCounts();
     private List<ByUserElevator> elevators = new ArrayList<>();
 
     private List<Integer> peopleByTick = new ArrayList<>();
@@ -56,6 +56,10 @@ public class ByUserElevators implements Elevators {
         return elevators;
     }
 
+    public int getWaitingUsersCount() {
+        return waitingUsersCount.getTotal();
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(ByUserElevators.class);
 
     private int currentTick = -1;
@@ -95,11 +99,7 @@ public class ByUserElevators implements Elevators {
         peopleByTick.add(0);
         logState();
 
-        DescriptiveStatistics stats = new DescriptiveStatistics();
-        for (int floor = lowerFloor; floor <= higherFlor; floor++) {
-            stats.addValue(waitingUsers.containsKey(floor) ? waitingUsers.get(floor).size() : 0);
-        }
-        if (stats.getMean() > maxWaitingsMean) {
+        if (waitingUsersCount.getMean() > maxWaitingsMean) {
             return new Commands(Arrays.asList(Command.FORCERESET));
         }
 
@@ -191,6 +191,7 @@ public class ByUserElevators implements Elevators {
             waitingUsers.put(floor, new LinkedList<User>());
         }
         waitingUsers.get(floor).addLast(new User(floor, currentTick, Direction.valueOf(to)));
+        waitingUsersCount.increment(floor);
     }
 
     @Override
@@ -212,6 +213,7 @@ public class ByUserElevators implements Elevators {
     public void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
         mustReset = false;
         waitingUsers.clear();
+        waitingUsersCount.reset(lowerFloor, higherFloor);
         this.lowerFloor = lowerFloor;
         this.higherFlor = higherFloor;
         this.cabinSize = cabinSize;
@@ -223,7 +225,7 @@ public class ByUserElevators implements Elevators {
                 if (cabinCount == midCabin) {
                     direction = direction.getOtherDirection();
                 }
-                elevators.add(new ByUserElevator(waitingUsers, direction));
+                elevators.add(new ByUserElevator(waitingUsers, waitingUsersCount, direction));
             }
         }
 
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import java.util.List;
+
+/**
+ * Index of cabins by their current floor, buckets are indexed by (floor - lowerFloor).
+ * Cabins outside the building (before their first move after a reset) are kept apart.
+ * Used to find the nearest cabins of a floor without scanning all cabins.
+ */
+class CabinsByFloor {
+
+    private int lowerFloor;
+    private int higherFloor;
+
+    private int[][] cabinsOfFloor = new int[1][0];
+    private int[] counts = new int[1];
+    private int[] floorOfCabin = new int[0];
+
+    private int[] outsideCabins = new int[0];
+    private int outsideCount;
+
+    private int[] nearest = new int[0];
+
+    void reset(int lowerFloor, int higherFloor, List<? extends CleverElevator> cabins) {
+        this.lowerFloor = lowerFloor;
+        this.higherFloor = higherFloor;
+        int nbFloors = higherFloor - lowerFloor + 1;
+        int nbCabins = cabins.size();
+        cabinsOfFloor = new int[nbFloors][nbCabins];
+        counts = new int[nbFloors];
+        floorOfCabin = new int[nbCabins];
+        outsideCabins = new int[nbCabins];
+        outsideCount = 0;
+        nearest = new int[nbCabins];
+        for (int cabin = 0; cabin < nbCabins; cabin++) {
+            floorOfCabin[cabin] = cabins.get(cabin).getCurrentFloor();
+            add(cabin);
+        }
+    }
+
+    private boolean isInBuilding(int floor) {
+        return floor >= lowerFloor && floor <= higherFloor;
+    }
+
+    void move(int cabin, int floor) {
+        if (floorOfCabin[cabin] == floor) {
+            return;
+        }
+        remove(cabin);
+        floorOfCabin[cabin] = floor;
+        add(cabin);
+    }
+
+    private void add(int cabin) {
+        int floor = floorOfCabin[cabin];
+        if (isInBuilding(floor)) {
+            int floorIndex = floor - lowerFloor;
+            cabinsOfFloor[floorIndex][counts[floorIndex]++] = cabin;
+        } else {
+            outsideCabins[outsideCount++] = cabin;
+        }
+    }
+
+    private void remove(int cabin) {
+        int floor = floorOfCabin[cabin];
+        if (isInBuilding(floor)) {
+            int floorIndex = floor - lowerFloor;
+            counts[floorIndex] = removeFrom(cabinsOfFloor[floorIndex], counts[floorIndex], cabin);
+        } else {
+            outsideCount = removeFrom(outsideCabins, outsideCount, cabin);
+        }
+    }
+
+    private static int removeFrom(int[] cabins, int count, int cabin) {
+        for (int index = 0; index < count; index++) {
+            if (cabins[index] == cabin) {
+                cabins[index] = cabins[count - 1];
+                return count - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Search cabins with the minimal distance to floor, get them with {@link #getNearest(int)}.
+     * @return number of cabins found.
+     */
+    int findNearest(int floor) {
+        int bestDistance = distanceToNearest(floor);
+        if (bestDistance == Integer.MAX_VALUE) {
+            return 0;
+        }
+
+        int nbNearest = copyCabinsAt(floor - bestDistance, 0);
+        if (bestDistance != 0) {
+            nbNearest = copyCabinsAt(floor + bestDistance, nbNearest);
+        }
+        for (int index = 0; index < outsideCount; index++) {
+            int cabin = outsideCabins[index];
+            if (Math.abs(floorOfCabin[cabin] - floor) == bestDistance) {
+                nearest[nbNearest++] = cabin;
+            }
+        }
+        return nbNearest;
+    }
+
+    /**
+     * @return distance between floor and the nearest cabin, Integer.MAX_VALUE if there is no cabin.
+     */
+    int distanceToNearest(int floor) {
+        int bestDistance = Integer.MAX_VALUE;
+        for (int index = 0; index < outsideCount; index++) {
+            bestDistance = Math.min(bestDistance, Math.abs(floorOfCabin[outsideCabins[index]] - floor));
+        }
+        int distanceToBuilding = floor < lowerFloor ? lowerFloor - floor : floor > higherFloor ? floor - higherFloor : 0;
+        int maxDistance = Math.max(Math.abs(floor - lowerFloor), Math.abs(floor - higherFloor));
+        for (int distance = distanceToBuilding; distance <= maxDistance && distance < bestDistance; distance++) {
+            if (countAt(floor - distance) > 0 || countAt(floor + distance) > 0) {
+                bestDistance = distance;
+            }
+        }
+        return bestDistance;
+    }
+
+    int getNearest(int index) {
+        return nearest[index];
+    }
+
+    private int countAt(int floor) {
+        return isInBuilding(floor) ? counts[floor - lowerFloor] : 0;
+    }
+
+    private int copyCabinsAt(int floor, int nbNearest) {
+        int count = countAt(floor);
+        if (count > 0) {
+            System.arraycopy(cabinsOfFloor[floor - lowerFloor], 0, nearest, nbNearest, count);
+        }
+        return nbNearest + count;
+    }
+}
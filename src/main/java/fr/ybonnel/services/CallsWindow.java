@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+/**
+ * Floors of the last calls, with a count of calls by floor,
+ * to get percentiles without sorting the window.
+ * Percentiles are estimated like commons-math Percentile.
+ */
+public class CallsWindow {
+
+    private final int[] floors;
+    private int size;
+    private int next;
+
+    private int lowerFloor;
+    private int[] counts = new int[1];
+
+    public CallsWindow(int capacity) {
+        floors = new int[capacity];
+    }
+
+    public int getN() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        next = 0;
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] = 0;
+        }
+    }
+
+    public void addValue(int floor) {
+        if (size == floors.length) {
+            counts[floors[next] - lowerFloor]--;
+        } else {
+            size++;
+        }
+        floors[next] = floor;
+        next = (next + 1) % floors.length;
+        ensureFloor(floor);
+        counts[floor - lowerFloor]++;
+    }
+
+    private void ensureFloor(int floor) {
+        int higherFloor = lowerFloor + counts.length - 1;
+        if (floor >= lowerFloor && floor <= higherFloor) {
+            return;
+        }
+        int newLowerFloor = Math.min(lowerFloor, floor);
+        int newHigherFloor = Math.max(higherFloor, floor);
+        int[] newCounts = new int[newHigherFloor - newLowerFloor + 1];
+        System.arraycopy(counts, 0, newCounts, lowerFloor - newLowerFloor, counts.length);
+        counts = newCounts;
+        lowerFloor = newLowerFloor;
+    }
+
+    /**
+     * Add the frequency of each floor in the window, multiplied by total.
+     * @param weights weight of each floor from lowerFloorOfWeights, floors out of weights are ignored.
+     */
+    public void addFrequencies(double total, double[] weights, int lowerFloorOfWeights) {
+        if (size == 0) {
+            return;
+        }
+        for (int index = 0; index < counts.length; index++) {
+            int weightIndex = lowerFloor + index - lowerFloorOfWeights;
+            if (counts[index] > 0 && weightIndex >= 0 && weightIndex < weights.length) {
+                weights[weightIndex] += total * counts[index] / size;
+            }
+        }
+    }
+
+    public double getPercentile(double percentile) {
+        double[] results = new double[1];
+        getPercentiles(new double[]{percentile}, results);
+        return results[0];
+    }
+
+    /**
+     * Compute all percentiles in one pass over floors.
+     * @param percentiles in ascending order, between 0 and 100.
+     * @param results filled with the percentiles.
+     */
+    public void getPercentiles(double[] percentiles, double[] results) {
+        int nbPercentiles = percentiles.length;
+        if (size == 0) {
+            for (int index = 0; index < nbPercentiles; index++) {
+                results[index] = Double.NaN;
+            }
+            return;
+        }
+        double n = size;
+        int countIndex = 0;
+        // Count of values before the floor at countIndex.
+        int cumulated = 0;
+        for (int index = 0; index < nbPercentiles; index++) {
+            double pos = percentiles[index] * (n + 1) / 100;
+            double fpos = Math.floor(pos);
+            int intPos = (int) fpos;
+            double dif = pos - fpos;
+            int lowerRank;
+            int upperRank;
+            if (size == 1 || pos < 1) {
+                lowerRank = 0;
+                upperRank = 0;
+            } else if (pos >= n) {
+                lowerRank = size - 1;
+                upperRank = size - 1;
+            } else {
+                lowerRank = intPos - 1;
+                upperRank = intPos;
+            }
+            while (cumulated + counts[countIndex] <= lowerRank) {
+                cumulated += counts[countIndex];
+                countIndex++;
+            }
+            double lower = lowerFloor + countIndex;
+            double upper = lower;
+            if (upperRank != lowerRank) {
+                int upperIndex = countIndex;
+                int upperCumulated = cumulated;
+                while (upperCumulated + counts[upperIndex] <= upperRank) {
+                    upperCumulated += counts[upperIndex];
+                    upperIndex++;
+                }
+                upper = lowerFloor + upperIndex;
+            }
+            results[index] = lowerRank == upperRank ? lower : lower + dif * (upper - lower);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Commands;
+
+/**
+ * Elevators able to answer next commands before a deadline.
+ */
+public interface DeadlineElevators extends Elevators {
+
+    /**
+     * Compute next commands, a cheap answer is always computed, refinements stop at the deadline.
+     * @param deadline deadline in {@link System#nanoTime()} time, Long.MAX_VALUE for no deadline.
+     */
+    Commands nextCommands(long deadline);
+}
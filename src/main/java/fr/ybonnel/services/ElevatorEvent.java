@@ -0,0 +1,227 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Direction;
+
+/**
+ * One parsed input of the game server, ready to be applied on an {@link Elevators}.
+ */
+public class ElevatorEvent {
+
+    public enum Type {
+        RESET,
+        CALL,
+        GO,
+        USER_HAS_ENTERED,
+        USER_HAS_EXITED
+    }
+
+    private Type type;
+
+    private String cause;
+    private int lowerFloor;
+    private int higherFloor;
+    private int cabinSize;
+    private int cabinCount;
+
+    private int atFloor;
+    private String to;
+
+    private int cabin;
+    private int floorToGo;
+
+    public ElevatorEvent() {
+    }
+
+    private ElevatorEvent(Type type) {
+        this.type = type;
+    }
+
+    public static ElevatorEvent reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+        ElevatorEvent event = new ElevatorEvent(Type.RESET);
+        event.cause = cause;
+        event.lowerFloor = lowerFloor;
+        event.higherFloor = higherFloor;
+        event.cabinSize = cabinSize;
+        event.cabinCount = cabinCount;
+        return event;
+    }
+
+    public static ElevatorEvent call(int atFloor, String to) {
+        ElevatorEvent event = new ElevatorEvent(Type.CALL);
+        event.atFloor = atFloor;
+        event.to = to;
+        return event;
+    }
+
+    public static ElevatorEvent go(int cabin, int floorToGo) {
+        ElevatorEvent event = new ElevatorEvent(Type.GO);
+        event.cabin = cabin;
+        event.floorToGo = floorToGo;
+        return event;
+    }
+
+    public static ElevatorEvent userHasEntered(int cabin) {
+        ElevatorEvent event = new ElevatorEvent(Type.USER_HAS_ENTERED);
+        event.cabin = cabin;
+        return event;
+    }
+
+    public static ElevatorEvent userHasExited(int cabin) {
+        ElevatorEvent event = new ElevatorEvent(Type.USER_HAS_EXITED);
+        event.cabin = cabin;
+        return event;
+    }
+
+    /**
+     * Check the event can be applied, fields of events parsed from a request are not checked by the parser.
+     * @throws IllegalArgumentException if the event is malformed.
+     */
+    public void validate() {
+        if (type == null) {
+            throw new IllegalArgumentException("Event without type");
+        }
+        switch (type) {
+            case RESET:
+                if (cause == null) {
+                    throw new IllegalArgumentException("Reset without cause");
+                }
+                if (higherFloor < lowerFloor || cabinSize <= 0 || cabinCount < 0) {
+                    throw new IllegalArgumentException("Invalid building : " + this);
+                }
+                break;
+            case CALL:
+                if (!isDirection(to)) {
+                    throw new IllegalArgumentException("Invalid direction : " + this);
+                }
+                break;
+            default:
+                if (cabin < 0) {
+                    throw new IllegalArgumentException("Invalid cabin : " + this);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Check the cabin of the event against the cabins of the building, which change with resets.
+     * @param cabinCount cabins of the building before the event.
+     * @return cabins of the building after the event.
+     * @throws IllegalArgumentException if the cabin of the event is not in the building.
+     */
+    public int validateCabin(int cabinCount) {
+        switch (type) {
+            case RESET:
+                return this.cabinCount;
+            case CALL:
+                return cabinCount;
+            default:
+                if (cabin >= cabinCount) {
+                    throw new IllegalArgumentException("Invalid cabin : " + this + ", the building has " + cabinCount + " cabins");
+                }
+                return cabinCount;
+        }
+    }
+
+    private static boolean isDirection(String to) {
+        for (Direction direction : Direction.values()) {
+            if (direction.name().equals(to)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void applyTo(Elevators elevators) {
+        switch (type) {
+            case RESET:
+                elevators.reset(cause, lowerFloor, higherFloor, cabinSize, cabinCount);
+                break;
+            case CALL:
+                elevators.call(atFloor, to);
+                break;
+            case GO:
+                elevators.go(cabin, floorToGo);
+                break;
+            case USER_HAS_ENTERED:
+                elevators.userHasEntered(cabin);
+                break;
+            case USER_HAS_EXITED:
+                elevators.userHasExited(cabin);
+                break;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getCause() {
+        return cause;
+    }
+
+    public int getLowerFloor() {
+        return lowerFloor;
+    }
+
+    public int getHigherFloor() {
+        return higherFloor;
+    }
+
+    public int getCabinSize() {
+        return cabinSize;
+    }
+
+    public int getCabinCount() {
+        return cabinCount;
+    }
+
+    public int getAtFloor() {
+        return atFloor;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public int getCabin() {
+        return cabin;
+    }
+
+    public int getFloorToGo() {
+        return floorToGo;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case RESET:
+                return "reset(" + cause + "," + lowerFloor + "," + higherFloor + "," + cabinSize + "," + cabinCount + ")";
+            case CALL:
+                return "call(" + atFloor + "," + to + ")";
+            case GO:
+                return "go(" + cabin + "," + floorToGo + ")";
+            case USER_HAS_ENTERED:
+                return "userHasEntered(" + cabin + ")";
+            case USER_HAS_EXITED:
+                return "userHasExited(" + cabin + ")";
+            default:
+                return String.valueOf(type);
+        }
+    }
+}
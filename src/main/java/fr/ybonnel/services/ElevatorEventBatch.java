@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Body of the events route : events to apply in order,
+ * and optionally the computation of next commands once they are applied.
+ */
+public class ElevatorEventBatch {
+
+    private List<ElevatorEvent> events = new ArrayList<>();
+
+    private boolean nextCommands;
+
+    public ElevatorEventBatch() {
+    }
+
+    public ElevatorEventBatch(List<ElevatorEvent> events, boolean nextCommands) {
+        this.events = events;
+        this.nextCommands = nextCommands;
+    }
+
+    public List<ElevatorEvent> getEvents() {
+        return events;
+    }
+
+    public boolean isNextCommands() {
+        return nextCommands;
+    }
+
+    /**
+     * Check all events before any is applied, so a malformed batch doesn't leave the elevators half updated.
+     * @throws IllegalArgumentException if an event is malformed.
+     */
+    public void validate() {
+        if (events == null) {
+            return;
+        }
+        for (int index = 0; index < events.size(); index++) {
+            ElevatorEvent event = events.get(index);
+            if (event == null) {
+                throw new IllegalArgumentException("Event " + index + " is null");
+            }
+            try {
+                event.validate();
+            } catch (IllegalArgumentException exception) {
+                throw new IllegalArgumentException("Event " + index + " : " + exception.getMessage(), exception);
+            }
+        }
+    }
+
+    /**
+     * Check cabins of all events before any is applied, with the cabins changed by resets of the batch.
+     * Must be called with exclusive access to elevators, after {@link #validate()}.
+     * @param cabinCount cabins of the building before the batch.
+     * @return cabins of the building after the batch.
+     * @throws IllegalArgumentException if the cabin of an event is not in the building.
+     */
+    public int validateCabins(int cabinCount) {
+        if (events == null) {
+            return cabinCount;
+        }
+        for (int index = 0; index < events.size(); index++) {
+            try {
+                cabinCount = events.get(index).validateCabin(cabinCount);
+            } catch (IllegalArgumentException exception) {
+                throw new IllegalArgumentException("Event " + index + " : " + exception.getMessage(), exception);
+            }
+        }
+        return cabinCount;
+    }
+
+    /**
+     * Apply all events, must be called with exclusive access to elevators.
+     * @return next commands if asked, null otherwise.
+     */
+    public Commands applyTo(Elevators elevators) {
+        return applyTo(elevators, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param deadline deadline of next commands for elevators implementing {@link DeadlineElevators}.
+     */
+    public Commands applyTo(Elevators elevators, long deadline) {
+        if (events != null) {
+            for (ElevatorEvent event : events) {
+                event.applyTo(elevators);
+            }
+        }
+        if (!nextCommands) {
+            return null;
+        }
+        return elevators instanceof DeadlineElevators
+                ? ((DeadlineElevators) elevators).nextCommands(deadline)
+                : elevators.nextCommands();
+    }
+
+    public int size() {
+        return events == null ? 0 : events.size();
+    }
+}
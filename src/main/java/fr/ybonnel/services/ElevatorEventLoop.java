@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Commands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single writer of an {@link Elevators}.
+ * Http threads only enqueue actions, one dedicated thread applies them in order,
+ * so the elevators state is never shared between threads.
+ */
+public class ElevatorEventLoop {
+
+    private static final Logger logger = LoggerFactory.getLogger(ElevatorEventLoop.class);
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public interface Action<T> {
+        T apply(Elevators elevators);
+    }
+
+    /**
+     * Result of an action, available once the action is applied.
+     */
+    public interface Result<T> {
+        T await();
+    }
+
+    private final Elevators elevators;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Task<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final SpeculativeElevators speculativeElevators;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public ElevatorEventLoop(Elevators elevators) {
+        this(elevators, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * @param speculate true to prepare next commands when there is no event to apply,
+     *                  only for elevators implementing {@link SpeculativeElevators}.
+     */
+    public ElevatorEventLoop(Elevators elevators, int capacity, boolean speculate) {
+        this.elevators = elevators;
+        this.capacity = capacity;
+        this.speculativeElevators = speculate && elevators instanceof SpeculativeElevators
+                ? (SpeculativeElevators) elevators : null;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "elevator-event-loop");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Enqueue an event without waiting it to be applied.
+     */
+    public void submit(final ElevatorEvent event) {
+        submit(new Action<Void>() {
+            @Override
+            public Void apply(Elevators elevators) {
+                event.applyTo(elevators);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Enqueue an action without waiting it to be applied.
+     */
+    public <T> void submit(Action<T> action) {
+        enqueue(new Task<>(action, false));
+    }
+
+    /**
+     * Enqueue an action and wait for its result.
+     */
+    public <T> T execute(Action<T> action) {
+        return enqueueForResult(action).await();
+    }
+
+    /**
+     * Enqueue an action and wait for its result later,
+     * so actions can be enqueued in a critical section without waiting in it.
+     */
+    public <T> Result<T> enqueueForResult(Action<T> action) {
+        Task<T> task = new Task<>(action, true);
+        enqueue(task);
+        return task;
+    }
+
+    public Commands nextCommands() {
+        return nextCommands(Long.MAX_VALUE);
+    }
+
+    /**
+     * @param deadline deadline of elevators implementing {@link DeadlineElevators}, time in queue included.
+     */
+    public Commands nextCommands(final long deadline) {
+        return execute(new Action<Commands>() {
+            @Override
+            public Commands apply(Elevators elevators) {
+                return elevators instanceof DeadlineElevators
+                        ? ((DeadlineElevators) elevators).nextCommands(deadline)
+                        : elevators.nextCommands();
+            }
+        });
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void enqueue(Task<?> task) {
+        // Back pressure : when the queue is full, the http thread waits for the loop to catch up.
+        while (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            Thread.yield();
+        }
+        queue.offer(task);
+        LockSupport.unpark(thread);
+    }
+
+    private void loop() {
+        while (running) {
+            Task<?> task = queue.poll();
+            if (task == null) {
+                if (speculativeElevators != null) {
+                    prepareNextCommands();
+                }
+                // Unparked by enqueue or stop : a permit given before parking makes park return at once.
+                LockSupport.park(this);
+                continue;
+            }
+            pending.decrementAndGet();
+            task.run(elevators);
+        }
+    }
+
+    private void prepareNextCommands() {
+        try {
+            speculativeElevators.prepareNextCommands();
+        } catch (RuntimeException | Error exception) {
+            logger.error("Error while preparing next commands", exception);
+        }
+    }
+
+    private static class Task<T> implements Result<T> {
+        private final Action<T> action;
+        private final CountDownLatch done;
+        private T result;
+        private RuntimeException error;
+        private Error fatalError;
+
+        private Task(Action<T> action, boolean waitResult) {
+            this.action = action;
+            this.done = waitResult ? new CountDownLatch(1) : null;
+        }
+
+        private void run(Elevators elevators) {
+            // The loop stays alive, and waiting threads are always released.
+            try {
+                result = action.apply(elevators);
+            } catch (RuntimeException exception) {
+                logger.error("Error while applying action", exception);
+                error = exception;
+            } catch (Error exception) {
+                logger.error("Error while applying action", exception);
+                fatalError = exception;
+            } finally {
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
+
+        @Override
+        public T await() {
+            try {
+                done.await();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the event loop", exception);
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (fatalError != null) {
+                throw fatalError;
+            }
+            return result;
+        }
+    }
+}
@@ -16,7 +16,6 @@
  */
 package fr.ybonnel.services;
 
-import fr.ybonnel.services.model.Command;
 import fr.ybonnel.services.model.Commands;
 import fr.ybonnel.simpleweb4j.exception.HttpErrorException;
 import fr.ybonnel.simpleweb4j.handlers.ContentType;
@@ -26,37 +25,165 @@ import fr.ybonnel.simpleweb4j.handlers.RouteParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static fr.ybonnel.simpleweb4j.SimpleWeb4j.get;
+import static fr.ybonnel.simpleweb4j.SimpleWeb4j.post;
 
 public class ElevatorService {
 
     private final Logger logger;
+    private final RequestLogger requestLogger = RequestLogger.getInstance();
+    private final RouteMetrics metrics;
 
     private final Elevators elevators;
+    private final ShadowedElevators shadowedElevators;
     private final String route;
+    private final ElevatorEventLoop eventLoop;
+    private volatile long nextCommandsDeadlineNanos;
+    // Cabins after the last accepted event, in the order of application :
+    // written under the lock of elevators, or under the lock of the event loop when events are enqueued.
+    private int cabinCount;
 
     public ElevatorService(String route, Elevators elevators) {
-        this.elevators = elevators;
+        this(route, elevators, false, false);
+    }
+
+    /**
+     * @param useEventLoop true to apply events on a dedicated thread instead of locking the elevators.
+     * @param speculate true to prepare next commands on the event loop thread between events.
+     */
+    public ElevatorService(String route, Elevators elevators, boolean useEventLoop, boolean speculate) {
+        this(route, elevators, useEventLoop, speculate, new RouteMetrics());
+    }
+
+    /**
+     * Each service has its own lock or event loop, several services can host independent buildings.
+     * @param metrics latencies of routes of this service.
+     */
+    public ElevatorService(String route, Elevators elevators, boolean useEventLoop, boolean speculate, RouteMetrics metrics) {
+        this(route, elevators, useEventLoop, speculate, metrics, null);
+    }
+
+    /**
+     * @param journal journal of all inputs and responses of elevators, null for no journal.
+     */
+    public ElevatorService(String route, Elevators elevators, boolean useEventLoop, boolean speculate, RouteMetrics metrics, EventJournal journal) {
+        this.metrics = metrics;
+        this.shadowedElevators = new ShadowedElevators(journal == null ? elevators : new JournaledElevators(elevators, journal));
+        this.elevators = shadowedElevators;
         this.route = route;
         this.logger = LoggerFactory.getLogger(elevators.getClass());
+        this.eventLoop = useEventLoop ? new ElevatorEventLoop(this.elevators, ElevatorEventLoop.DEFAULT_CAPACITY, speculate) : null;
+    }
+
+    /**
+     * Mirror all events and ticks to the shadow evaluator, in the order of production, off the request thread.
+     */
+    public void setShadowEvaluator(ShadowEvaluator shadowEvaluator) {
+        shadowedElevators.setShadowEvaluator(shadowEvaluator);
+    }
+
+    /**
+     * Time allowed to next commands from the reception of the request, including the wait of the lock or event loop.
+     * Only elevators implementing {@link DeadlineElevators} stop their refinements at the deadline.
+     * @param micros time allowed, 0 for no deadline.
+     */
+    public void setNextCommandsDeadline(long micros) {
+        this.nextCommandsDeadlineNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    private long deadlineOf(long startTime) {
+        long deadlineNanos = nextCommandsDeadlineNanos;
+        return deadlineNanos > 0 ? startTime + deadlineNanos : Long.MAX_VALUE;
+    }
+
+    /**
+     * Apply an event of a route.
+     * The event is checked on the request thread, also with the event loop where it is applied later,
+     * so a malformed event is always answered by a 400.
+     */
+    public void handleEvent(ElevatorEvent event) throws HttpErrorException {
+        try {
+            event.validate();
+            if (eventLoop != null) {
+                // Events are checked in the order of the queue, which is the order of application.
+                synchronized (eventLoop) {
+                    cabinCount = event.validateCabin(cabinCount);
+                    eventLoop.submit(event);
+                }
+            } else {
+                synchronized (elevators) {
+                    cabinCount = event.validateCabin(cabinCount);
+                    event.applyTo(elevators);
+                }
+            }
+        } catch (IllegalArgumentException exception) {
+            requestLogger.info(logger, "Invalid event : {}", exception.getMessage());
+            throw new HttpErrorException(400, exception.getMessage());
+        }
+    }
+
+    private Commands nextCommands(long deadline) {
+        if (eventLoop != null) {
+            return eventLoop.nextCommands(deadline);
+        }
+        synchronized (elevators) {
+            return ((DeadlineElevators) elevators).nextCommands(deadline);
+        }
+    }
+
+    /**
+     * Cabins of all events are checked before any is applied.
+     * @throws IllegalArgumentException if the cabin of an event is not in the building.
+     */
+    private Commands apply(final ElevatorEventBatch batch, final long deadline) {
+        Commands commands;
+        if (eventLoop != null) {
+            ElevatorEventLoop.Result<Commands> result;
+            synchronized (eventLoop) {
+                cabinCount = batch.validateCabins(cabinCount);
+                result = eventLoop.enqueueForResult(new ElevatorEventLoop.Action<Commands>() {
+                    @Override
+                    public Commands apply(Elevators elevators) {
+                        return batch.applyTo(elevators, deadline);
+                    }
+                });
+            }
+            commands = result.await();
+        } else {
+            synchronized (elevators) {
+                cabinCount = batch.validateCabins(cabinCount);
+                commands = batch.applyTo(elevators, deadline);
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Compute next commands with metrics and logging.
+     * Commands can be reused by the elevators, they must be written before the next tick.
+     */
+    public Commands handleNextCommands() {
+        long startTime = System.nanoTime();
+        Commands nextCommands = nextCommands(deadlineOf(startTime));
+        long endTime = System.nanoTime();
+        metrics.record("nextCommands", endTime - startTime);
+        if (requestLogger.isSampled("nextCommands")) {
+            requestLogger.info(logger, "Call of nextCommand, response : {}, time({}us)", nextCommands.getCommands().toString(), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
+        }
+        return nextCommands;
+    }
+
+    public String getNextCommandsPath() {
+        return route + "/nextCommands";
     }
 
     public Route<Void, Commands> getNextCommandRoute() {
-        return new Route<Void, Commands>(route + "/nextCommands", Void.class, ContentType.PLAIN_TEXT) {
+        return new Route<Void, Commands>(getNextCommandsPath(), Void.class, ContentType.PLAIN_TEXT) {
             @Override
             public Response<Commands> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
-                long startTime = System.nanoTime();
-                Commands nextCommands;
-                synchronized (elevators) {
-                    nextCommands = elevators.nextCommands();
-                }
-                long endTime = System.nanoTime();
-                logger.info("Call of nextCommand, response : {}, time({}us)", nextCommands.getCommands(), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
-                return new Response<>(nextCommands);
+                return new Response<>(handleNextCommands());
             }
         };
     }
@@ -66,15 +193,14 @@ public class ElevatorService {
             @Override
             public Response<Void> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
                 long startTime = System.nanoTime();
-                synchronized (elevators) {
-                    elevators.reset(routeParams.getParam("cause"),
-                            Integer.parseInt(routeParams.getParam("lowerFloor")),
-                            Integer.parseInt(routeParams.getParam("higherFloor")),
-                            Integer.parseInt(routeParams.getParam("cabinSize")),
-                            Integer.parseInt(routeParams.getParam("cabinCount")));
-                }
+                handleEvent(ElevatorEvent.reset(routeParams.getParam("cause"),
+                        Integer.parseInt(routeParams.getParam("lowerFloor")),
+                        Integer.parseInt(routeParams.getParam("higherFloor")),
+                        Integer.parseInt(routeParams.getParam("cabinSize")),
+                        Integer.parseInt(routeParams.getParam("cabinCount"))));
                 long endTime = System.nanoTime();
-                logger.info("Call of reset({}) : time({}us)", routeParams.getParam("cause"), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
+                metrics.record("reset", endTime - startTime);
+                requestLogger.info("reset", logger, "Call of reset({}) : time({}us)", routeParams.getParam("cause"), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
                 return new Response<>(null);
             }
         };
@@ -85,13 +211,12 @@ public class ElevatorService {
             @Override
             public Response<Void> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
                 long startTime = System.nanoTime();
-                synchronized (elevators) {
-                    elevators.call(
-                            Integer.parseInt(routeParams.getParam("atFloor")),
-                            routeParams.getParam("to"));
-                }
+                handleEvent(ElevatorEvent.call(
+                        Integer.parseInt(routeParams.getParam("atFloor")),
+                        routeParams.getParam("to")));
                 long endTime = System.nanoTime();
-                logger.info("Call of call({},{}) : time({}us)", routeParams.getParam("atFloor"), routeParams.getParam("to"), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
+                metrics.record("call", endTime - startTime);
+                requestLogger.info("call", logger, "Call of call({},{}) : time({}us)", routeParams.getParam("atFloor"), routeParams.getParam("to"), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
                 return new Response<>(null);
             }
         };
@@ -102,13 +227,12 @@ public class ElevatorService {
             @Override
             public Response<Void> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
                 long startTime = System.nanoTime();
-                synchronized (elevators) {
-                    elevators.go(
-                            Integer.parseInt(routeParams.getParam("cabin")),
-                            Integer.parseInt(routeParams.getParam("floorToGo")));
-                }
+                handleEvent(ElevatorEvent.go(
+                        Integer.parseInt(routeParams.getParam("cabin")),
+                        Integer.parseInt(routeParams.getParam("floorToGo"))));
                 long endTime = System.nanoTime();
-                logger.info("Call of go({},{}) : time({}us)", routeParams.getParam("cabin"), routeParams.getParam("floorToGo"), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
+                metrics.record("go", endTime - startTime);
+                requestLogger.info("go", logger, "Call of go({},{}) : time({}us)", routeParams.getParam("cabin"), routeParams.getParam("floorToGo"), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
                 return new Response<>(null);
             }
         };
@@ -119,13 +243,11 @@ public class ElevatorService {
             @Override
             public Response<Void> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
                 long startTime = System.nanoTime();
-                synchronized (elevators) {
-                    elevators.userHasEntered(
-                            Integer.parseInt(routeParams.getParam("cabin"))
-                    );
-                }
+                handleEvent(ElevatorEvent.userHasEntered(
+                        Integer.parseInt(routeParams.getParam("cabin"))));
                 long endTime = System.nanoTime();
-                logger.info("Call of userHasEntered({}) : time({}us)", Integer.parseInt(routeParams.getParam("cabin")), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
+                metrics.record("userHasEntered", endTime - startTime);
+                requestLogger.info("userHasEntered", logger, "Call of userHasEntered({}) : time({}us)", routeParams.getParam("cabin"), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
                 return new Response<>(null);
             }
         };
@@ -136,18 +258,52 @@ public class ElevatorService {
             @Override
             public Response<Void> handle(Void param, RouteParameters routeParams) throws HttpErrorException {
                 long startTime = System.nanoTime();
-                synchronized (elevators) {
-                    elevators.userHasExited(
-                            Integer.parseInt(routeParams.getParam("cabin"))
-                    );
-                }
+                handleEvent(ElevatorEvent.userHasExited(
+                        Integer.parseInt(routeParams.getParam("cabin"))));
                 long endTime = System.nanoTime();
-                logger.info("Call of userHasExited({}): time({}us)", Integer.parseInt(routeParams.getParam("cabin")), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
+                metrics.record("userHasExited", endTime - startTime);
+                requestLogger.info("userHasExited", logger, "Call of userHasExited({}): time({}us)", routeParams.getParam("cabin"), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
                 return new Response<>(null);
             }
         };
     }
 
+    public Route<ElevatorEventBatch, Commands> getEventsRoute() {
+        return new Route<ElevatorEventBatch, Commands>(route + "/events", ElevatorEventBatch.class, ContentType.PLAIN_TEXT) {
+            @Override
+            public Response<Commands> handle(ElevatorEventBatch param, RouteParameters routeParams) throws HttpErrorException {
+                if (param == null) {
+                    throw new HttpErrorException(400);
+                }
+                try {
+                    param.validate();
+                } catch (IllegalArgumentException exception) {
+                    requestLogger.info("events", logger, "Invalid events : {}", exception.getMessage());
+                    throw new HttpErrorException(400, exception.getMessage());
+                }
+                long startTime = System.nanoTime();
+                Commands nextCommands;
+                try {
+                    nextCommands = apply(param, deadlineOf(startTime));
+                } catch (IllegalArgumentException exception) {
+                    requestLogger.info("events", logger, "Invalid events : {}", exception.getMessage());
+                    throw new HttpErrorException(400, exception.getMessage());
+                }
+                long endTime = System.nanoTime();
+                metrics.record("events", endTime - startTime);
+                if (requestLogger.isSampled("events")) {
+                    requestLogger.info(logger, "Call of events({}), response : {}, time({}us)", param.size(),
+                            nextCommands == null ? null : nextCommands.getCommands().toString(), TimeUnit.NANOSECONDS.toMicros(endTime - startTime));
+                }
+                return new Response<>(nextCommands);
+            }
+        };
+    }
+
+    public RouteMetrics getMetrics() {
+        return metrics;
+    }
+
     public void registerRoutes() {
         get(getNextCommandRoute());
         get(getResetRoute());
@@ -155,5 +311,6 @@ public class ElevatorService {
         get(getGoRoute());
         get(getUserHasEnteredRoute());
         get(getUserHasExitedRoute());
+        post(getEventsRoute());
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Direction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable snapshot of elevators, published by the dispatcher on each tick.
+ */
+public class ElevatorsStatus {
+
+    public static final ElevatorsStatus EMPTY = new ElevatorsStatus(-1,
+            Collections.<CabinStatus>emptyList(),
+            Collections.<Integer, Integer>emptyMap(),
+            Collections.<Integer>emptyList());
+
+    public static class CabinStatus {
+        private final Direction currentDirection;
+        private final int currentFloor;
+        private final int bestFloorToWait;
+        private final int currentTick;
+        private final int currentScore;
+        private final int resetCount;
+
+        public CabinStatus(ByUser2Elevator elevator) {
+            this.currentDirection = elevator.getCurrentDirection();
+            this.currentFloor = elevator.getCurrentFloor();
+            this.bestFloorToWait = elevator.getBestFloorToWait();
+            this.currentTick = elevator.getCurrentTick();
+            this.currentScore = elevator.getCurrentScore();
+            this.resetCount = elevator.getResetCount();
+        }
+    }
+
+    private final int tick;
+    private final List<CabinStatus> cabins;
+    private final Map<Integer, Integer> callsByFloor;
+    private final List<Integer> peopleByTick;
+    private volatile String rendering;
+
+    private ElevatorsStatus(int tick, List<CabinStatus> cabins, Map<Integer, Integer> callsByFloor, List<Integer> peopleByTick) {
+        this.tick = tick;
+        this.cabins = cabins;
+        this.callsByFloor = callsByFloor;
+        this.peopleByTick = peopleByTick;
+    }
+
+    /**
+     * @param maxPeopleByTick number of last ticks to keep in peopleByTick.
+     */
+    public static ElevatorsStatus of(int tick, List<ByUser2Elevator> elevators, Map<Integer, Integer> callsByFloor,
+                                     List<Integer> peopleByTick, int maxPeopleByTick) {
+        List<CabinStatus> cabins = new ArrayList<>(elevators.size());
+        for (ByUser2Elevator elevator : elevators) {
+            cabins.add(new CabinStatus(elevator));
+        }
+        List<Integer> lastPeopleByTick = peopleByTick.subList(Math.max(0, peopleByTick.size() - maxPeopleByTick), peopleByTick.size());
+        return new ElevatorsStatus(tick,
+                Collections.unmodifiableList(cabins),
+                Collections.unmodifiableMap(new TreeMap<>(callsByFloor)),
+                Collections.unmodifiableList(new ArrayList<>(lastPeopleByTick)));
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Rendering is computed once by snapshot.
+     */
+    public String render() {
+        String result = rendering;
+        if (result == null) {
+            StringBuilder builder = new StringBuilder();
+            int index = 0;
+            for (CabinStatus cabin : cabins) {
+                builder.append("elevator ").append(index++).append(" :").append("\n");
+                builder.append("\tcurrentdirection : ").append(cabin.currentDirection).append('\n');
+                builder.append("\tcurrentfloor : ").append(cabin.currentFloor).append('\n');
+                builder.append("\tbestfloortowait : ").append(cabin.bestFloorToWait).append('\n');
+                builder.append("\tcurrenttick : ").append(cabin.currentTick).append('\n');
+                builder.append("\tcurrentscore : ").append(cabin.currentScore).append('\n');
+                builder.append("\tresetCount : ").append(cabin.resetCount).append('\n');
+            }
+            builder.append("\nCallsByFloor : ").append("\n").append(callsByFloor);
+            builder.append("\nPeopleByTick : ").append("\n").append(peopleByTick);
+            result = builder.toString();
+            rendering = result;
+        }
+        return result;
+    }
+}
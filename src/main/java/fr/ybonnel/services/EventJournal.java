@@ -0,0 +1,224 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Commands;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only journal of all inputs of a dispatcher, in fixed-size records of memory-mapped segment files.
+ * <p>
+ * A record is {@link #RECORD_SIZE} bytes : type (int), tick (int, number of nextCommands before the record),
+ * time in millis (long), then the payload of the type.
+ * A record with type 0 marks the end of the journal.
+ * Segments are named events-NNNNNNNNNN.journal, a new segment is started when the current one is full
+ * and on each start, existing segments are never written again.
+ * </p>
+ * Pages are written back by the system, only {@link #close()} forces them on disk.
+ */
+public class EventJournal implements Closeable {
+
+    public static final int RECORD_SIZE = 64;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final int TYPE_END = 0;
+    public static final int TYPE_RESET = 1;
+    public static final int TYPE_CALL = 2;
+    public static final int TYPE_GO = 3;
+    public static final int TYPE_USER_HAS_ENTERED = 4;
+    public static final int TYPE_USER_HAS_EXITED = 5;
+    public static final int TYPE_NEXT_COMMANDS = 6;
+
+    public static final int TYPE_OFFSET = 0;
+    public static final int TICK_OFFSET = 4;
+    public static final int TIME_OFFSET = 8;
+    public static final int PAYLOAD_OFFSET = 16;
+
+    /**
+     * Reset : lowerFloor, higherFloor, cabinSize, cabinCount (ints), then length of cause (short) and its first bytes.
+     */
+    public static final int MAX_CAUSE_LENGTH = RECORD_SIZE - PAYLOAD_OFFSET - 4 * 4 - 2;
+    /**
+     * NextCommands : number of commands (int), then ordinal of each command (byte).
+     */
+    public static final int MAX_COMMANDS = RECORD_SIZE - PAYLOAD_OFFSET - 4;
+
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final File directory;
+    private final int segmentSize;
+
+    private int segmentIndex;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private int position;
+    private int tick;
+
+    public EventJournal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize size of each segment file, rounded down to a multiple of {@link #RECORD_SIZE}.
+     */
+    public EventJournal(File directory, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        if (this.segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be at least " + RECORD_SIZE);
+        }
+        List<File> existingSegments = segments(directory);
+        segmentIndex = existingSegments.isEmpty() ? 0 : indexOf(existingSegments.get(existingSegments.size() - 1)) + 1;
+        openSegment();
+    }
+
+    /**
+     * @return segments of the directory, in order of writing.
+     */
+    public static List<File> segments(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<File> segments = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX)) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static int indexOf(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private void openSegment() throws IOException {
+        File file = new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+        segmentFile = new RandomAccessFile(file, "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        position = 0;
+    }
+
+    private void closeSegment() throws IOException {
+        segment.force();
+        segmentFile.close();
+    }
+
+    /**
+     * Start a record, the type is written by {@link #end(int)} once the payload is written.
+     * @return offset of the record in the segment.
+     */
+    private int begin() {
+        if (position == segmentSize) {
+            try {
+                closeSegment();
+                segmentIndex++;
+                openSegment();
+            } catch (IOException ioException) {
+                throw new IllegalStateException("Can't roll journal to a new segment", ioException);
+            }
+        }
+        segment.putInt(position + TICK_OFFSET, tick);
+        segment.putLong(position + TIME_OFFSET, System.currentTimeMillis());
+        return position;
+    }
+
+    private void end(int type) {
+        segment.putInt(position + TYPE_OFFSET, type);
+        position += RECORD_SIZE;
+    }
+
+    public synchronized void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+        int offset = begin() + PAYLOAD_OFFSET;
+        segment.putInt(offset, lowerFloor);
+        segment.putInt(offset + 4, higherFloor);
+        segment.putInt(offset + 8, cabinSize);
+        segment.putInt(offset + 12, cabinCount);
+        byte[] causeBytes = cause == null ? new byte[0] : cause.getBytes(StandardCharsets.UTF_8);
+        int causeLength = Math.min(causeBytes.length, MAX_CAUSE_LENGTH);
+        segment.putShort(offset + 16, (short) causeLength);
+        for (int index = 0; index < causeLength; index++) {
+            segment.put(offset + 18 + index, causeBytes[index]);
+        }
+        end(TYPE_RESET);
+    }
+
+    /**
+     * @param to UP or DOWN, stored as ordinal of direction (-1 if unknown).
+     */
+    public synchronized void call(int atFloor, String to) {
+        int offset = begin() + PAYLOAD_OFFSET;
+        segment.putInt(offset, atFloor);
+        segment.putInt(offset + 4, "UP".equals(to) ? 0 : "DOWN".equals(to) ? 1 : -1);
+        end(TYPE_CALL);
+    }
+
+    public synchronized void go(int cabin, int floorToGo) {
+        int offset = begin() + PAYLOAD_OFFSET;
+        segment.putInt(offset, cabin);
+        segment.putInt(offset + 4, floorToGo);
+        end(TYPE_GO);
+    }
+
+    public synchronized void userHasEntered(int cabin) {
+        int offset = begin() + PAYLOAD_OFFSET;
+        segment.putInt(offset, cabin);
+        end(TYPE_USER_HAS_ENTERED);
+    }
+
+    public synchronized void userHasExited(int cabin) {
+        int offset = begin() + PAYLOAD_OFFSET;
+        segment.putInt(offset, cabin);
+        end(TYPE_USER_HAS_EXITED);
+    }
+
+    /**
+     * Record the response of a tick, only the first {@link #MAX_COMMANDS} commands are kept.
+     */
+    public synchronized void nextCommands(Commands commands) {
+        int offset = begin() + PAYLOAD_OFFSET;
+        int nbCommands = commands.getCommands().size();
+        segment.putInt(offset, nbCommands);
+        for (int index = 0; index < Math.min(nbCommands, MAX_COMMANDS); index++) {
+            segment.put(offset + 4 + index, (byte) commands.getCommands().get(index).ordinal());
+        }
+        end(TYPE_NEXT_COMMANDS);
+        tick++;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeSegment();
+    }
+}
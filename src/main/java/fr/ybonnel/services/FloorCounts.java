@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import java.util.Arrays;
+
+/**
+ * Counts by floor in an array indexed by (floor - lowerFloor), with their running total.
+ * Floors outside the building are ignored.
+ */
+public class FloorCounts {
+
+    private int lowerFloor;
+    private int higherFloor;
+    private int[] counts = new int[1];
+    private int total;
+
+    public void reset(int lowerFloor, int higherFloor) {
+        this.lowerFloor = lowerFloor;
+        this.higherFloor = higherFloor;
+        int nbFloors = higherFloor - lowerFloor + 1;
+        if (counts.length != nbFloors) {
+            counts = new int[nbFloors];
+        } else {
+            Arrays.fill(counts, 0);
+        }
+        total = 0;
+    }
+
+    private boolean isInBuilding(int floor) {
+        return floor >= lowerFloor && floor <= higherFloor;
+    }
+
+    public int get(int floor) {
+        return isInBuilding(floor) ? counts[floor - lowerFloor] : 0;
+    }
+
+    public void increment(int floor) {
+        if (isInBuilding(floor)) {
+            counts[floor - lowerFloor]++;
+            total++;
+        }
+    }
+
+    public void decrement(int floor) {
+        if (isInBuilding(floor)) {
+            counts[floor - lowerFloor]--;
+            total--;
+        }
+    }
+
+    public void clear(int floor) {
+        if (isInBuilding(floor)) {
+            total -= counts[floor - lowerFloor];
+            counts[floor - lowerFloor] = 0;
+        }
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public double getMean() {
+        return (double) total / counts.length;
+    }
+}
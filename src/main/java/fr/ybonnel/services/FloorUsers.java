@@ -0,0 +1,314 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Direction;
+import fr.ybonnel.services.model.User;
+import fr.ybonnel.services.model.UserTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ids of users (in a {@link UserTable}) by floor, stored in arrays indexed by (floor - lowerFloor).
+ * Users of one floor are kept in arrival order.
+ * Users dropped by clear, reset or add outside the building are released from the table,
+ * users removed one by one are not.
+ * Score ticks of users are also kept sorted by floor, so sums of scores don't need to visit each user :
+ * <ul>
+ *     <li>users with destination by score limit tick,</li>
+ *     <li>waiting users by direction and parity of start tick.</li>
+ * </ul>
+ */
+public class FloorUsers {
+
+    private static final int INITIAL_FLOOR_CAPACITY = 4;
+
+    private static final int TRAVELLING = 0;
+    private static final int NB_GROUPS = 1 + Direction.values().length * 2;
+
+    private final UserTable table;
+
+    private int lowerFloor;
+    private int higherFloor;
+
+    private int[][] users = new int[1][INITIAL_FLOOR_CAPACITY];
+    private int[] counts = new int[1];
+    private SortedTicks[][] scoreTicks = newScoreTicks(1);
+    private int total;
+
+    public FloorUsers(UserTable table) {
+        this.table = table;
+    }
+
+    private static SortedTicks[][] newScoreTicks(int nbFloors) {
+        SortedTicks[][] scoreTicks = new SortedTicks[nbFloors][NB_GROUPS];
+        for (SortedTicks[] groups : scoreTicks) {
+            for (int group = 0; group < NB_GROUPS; group++) {
+                groups[group] = new SortedTicks();
+            }
+        }
+        return scoreTicks;
+    }
+
+    private static int firstWaitingGroup(Direction direction) {
+        return 1 + direction.ordinal() * 2;
+    }
+
+    private int group(int user) {
+        if (table.hasDestination(user)) {
+            return TRAVELLING;
+        }
+        return firstWaitingGroup(table.getDirectionCalled(user)) + (table.getStartTick(user) & 1);
+    }
+
+    private int scoreTick(int user) {
+        return table.hasDestination(user) ? table.getScoreLimitTick(user) : table.getStartTick(user);
+    }
+
+    /**
+     * Resize for the new floors, users on floors still in the building are kept.
+     */
+    public void reset(int lowerFloor, int higherFloor) {
+        if (lowerFloor == this.lowerFloor && higherFloor == this.higherFloor) {
+            return;
+        }
+        int[][] oldUsers = users;
+        int[] oldCounts = counts;
+        int oldLowerFloor = this.lowerFloor;
+
+        this.lowerFloor = lowerFloor;
+        this.higherFloor = higherFloor;
+        int nbFloors = higherFloor - lowerFloor + 1;
+        users = new int[nbFloors][INITIAL_FLOOR_CAPACITY];
+        counts = new int[nbFloors];
+        scoreTicks = newScoreTicks(nbFloors);
+        total = 0;
+        for (int oldIndex = 0; oldIndex < oldCounts.length; oldIndex++) {
+            for (int userIndex = 0; userIndex < oldCounts[oldIndex]; userIndex++) {
+                add(oldLowerFloor + oldIndex, oldUsers[oldIndex][userIndex]);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return total == 0;
+    }
+
+    public int size() {
+        return total;
+    }
+
+    public int getLowerFloor() {
+        return lowerFloor;
+    }
+
+    public int getHigherFloor() {
+        return higherFloor;
+    }
+
+    public boolean isInBuilding(int floor) {
+        return floor >= lowerFloor && floor <= higherFloor;
+    }
+
+    public boolean has(int floor) {
+        return isInBuilding(floor) && counts[floor - lowerFloor] > 0;
+    }
+
+    public int count(int floor) {
+        return isInBuilding(floor) ? counts[floor - lowerFloor] : 0;
+    }
+
+    public UserTable getTable() {
+        return table;
+    }
+
+    public int get(int floor, int index) {
+        return users[floor - lowerFloor][index];
+    }
+
+    public void add(int floor, int user) {
+        if (!isInBuilding(floor)) {
+            table.release(user);
+            return;
+        }
+        int floorIndex = floor - lowerFloor;
+        int[] usersOfFloor = users[floorIndex];
+        if (counts[floorIndex] == usersOfFloor.length) {
+            usersOfFloor = Arrays.copyOf(usersOfFloor, usersOfFloor.length * 2);
+            users[floorIndex] = usersOfFloor;
+        }
+        usersOfFloor[counts[floorIndex]++] = user;
+        scoreTicks[floorIndex][group(user)].add(scoreTick(user));
+        total++;
+    }
+
+    public int remove(int floor, int index) {
+        int floorIndex = floor - lowerFloor;
+        int[] usersOfFloor = users[floorIndex];
+        int user = usersOfFloor[index];
+        int count = counts[floorIndex];
+        System.arraycopy(usersOfFloor, index + 1, usersOfFloor, index, count - index - 1);
+        counts[floorIndex]--;
+        scoreTicks[floorIndex][group(user)].remove(scoreTick(user));
+        total--;
+        return user;
+    }
+
+    /**
+     * Put back a removed user at its index in the users of the floor.
+     */
+    public void insert(int floor, int index, int user) {
+        int floorIndex = floor - lowerFloor;
+        int[] usersOfFloor = users[floorIndex];
+        if (counts[floorIndex] == usersOfFloor.length) {
+            usersOfFloor = Arrays.copyOf(usersOfFloor, usersOfFloor.length * 2);
+            users[floorIndex] = usersOfFloor;
+        }
+        System.arraycopy(usersOfFloor, index, usersOfFloor, index + 1, counts[floorIndex] - index);
+        usersOfFloor[index] = user;
+        counts[floorIndex]++;
+        scoreTicks[floorIndex][group(user)].add(scoreTick(user));
+        total++;
+    }
+
+    public int removeFirst(int floor) {
+        return remove(floor, 0);
+    }
+
+    public void clear(int floor) {
+        if (!isInBuilding(floor)) {
+            return;
+        }
+        int floorIndex = floor - lowerFloor;
+        for (int index = 0; index < counts[floorIndex]; index++) {
+            table.release(users[floorIndex][index]);
+        }
+        total -= counts[floorIndex];
+        counts[floorIndex] = 0;
+        for (SortedTicks ticks : scoreTicks[floorIndex]) {
+            ticks.clear();
+        }
+    }
+
+    public void clear() {
+        for (int floor = lowerFloor; floor <= higherFloor; floor++) {
+            clear(floor);
+        }
+    }
+
+    public int countWaiting(int floor, Direction direction) {
+        if (!isInBuilding(floor)) {
+            return 0;
+        }
+        SortedTicks[] groups = scoreTicks[floor - lowerFloor];
+        int firstGroup = firstWaitingGroup(direction);
+        return groups[firstGroup].size() + groups[firstGroup + 1].size();
+    }
+
+    /**
+     * @return true if one user of the floor has a score at currentTick with this distance between him and the cabin.
+     */
+    public boolean hasUserWithScore(int floor, int currentTick, int distance) {
+        if (!has(floor)) {
+            return false;
+        }
+        SortedTicks[] groups = scoreTicks[floor - lowerFloor];
+        if (groups[TRAVELLING].size() > 0 && groups[TRAVELLING].max() - currentTick - distance > 0) {
+            return true;
+        }
+        for (int group = TRAVELLING + 1; group < NB_GROUPS; group++) {
+            // Latest arrived user is the one with best score.
+            if (groups[group].size() > 0 && waitingScore(currentTick, groups[group].max(), distance) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return sum of max(0, score - penalty) of users with destination on the floor.
+     */
+    public int sumOfTravellingScores(int floor, int currentTick, int penalty) {
+        if (!isInBuilding(floor)) {
+            return 0;
+        }
+        SortedTicks limitTicks = scoreTicks[floor - lowerFloor][TRAVELLING];
+        int threshold = currentTick + penalty;
+        return (int) (limitTicks.sumAbove(threshold) - (long) limitTicks.countAbove(threshold) * threshold);
+    }
+
+    /**
+     * @return sum of max(0, score - penalty) of users waiting on the floor to go to direction.
+     */
+    public int sumOfWaitingScores(int floor, int currentTick, int penalty, Direction direction) {
+        if (!isInBuilding(floor)) {
+            return 0;
+        }
+        SortedTicks[] groups = scoreTicks[floor - lowerFloor];
+        int firstGroup = firstWaitingGroup(direction);
+        return (int) (sumOfWaitingScores(groups[firstGroup], currentTick, penalty)
+                + sumOfWaitingScores(groups[firstGroup + 1], currentTick, penalty));
+    }
+
+    /**
+     * All start ticks must have the same parity.
+     */
+    private static long sumOfWaitingScores(SortedTicks startTicks, int currentTick, int penalty) {
+        if (startTicks.size() == 0) {
+            return 0;
+        }
+        long sum = 0;
+        // Users started after currentTick of cabin (tick of cabin can be late), computed one by one.
+        int firstStartedAfter = startTicks.firstIndexAbove(currentTick);
+        for (int index = firstStartedAfter; index < startTicks.size(); index++) {
+            sum += Math.max(0, waitingScore(currentTick, startTicks.get(index), penalty));
+        }
+        // For others, score = (2 * BASE_SCORE - 2 * penalty - currentTick + oddWait + startTick) / 2,
+        // and is positive for startTick > threshold.
+        int oddWait = (currentTick - startTicks.get(0)) & 1;
+        int threshold = currentTick - oddWait - 2 * User.BASE_SCORE + 2 * penalty;
+        if (threshold < currentTick) {
+            int count = startTicks.countAbove(threshold) - (startTicks.size() - firstStartedAfter);
+            long sumOfStartTicks = startTicks.sumAbove(threshold) - startTicks.sumAbove(currentTick);
+            sum += (count * (long) (2 * User.BASE_SCORE - 2 * penalty - currentTick + oddWait) + sumOfStartTicks) / 2;
+        }
+        return sum;
+    }
+
+    private static int waitingScore(int currentTick, int startTick, int penalty) {
+        return User.BASE_SCORE - (currentTick - startTick) / 2 - penalty;
+    }
+
+    public Map<Integer, List<String>> toState(int currentTick) {
+        Map<Integer, List<String>> state = new HashMap<>();
+        for (int floor = lowerFloor; floor <= higherFloor; floor++) {
+            int floorIndex = floor - lowerFloor;
+            if (counts[floorIndex] > 0) {
+                List<String> states = new ArrayList<>();
+                for (int index = 0; index < counts[floorIndex]; index++) {
+                    states.add(table.state(users[floorIndex][index], currentTick, floor));
+                }
+                state.put(floor, states);
+            }
+        }
+        return state;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Commands;
+
+/**
+ * Record each input of elevators in a journal before applying it, and each response after.
+ * Used with the same lock or event loop as elevators, so the journal has the order of application.
+ */
+public class JournaledElevators implements SpeculativeElevators, DeadlineElevators {
+
+    private final Elevators elevators;
+    private final EventJournal journal;
+
+    public JournaledElevators(Elevators elevators, EventJournal journal) {
+        this.elevators = elevators;
+        this.journal = journal;
+    }
+
+    @Override
+    public void logState() {
+        elevators.logState();
+    }
+
+    @Override
+    public Commands nextCommands() {
+        Commands commands = elevators.nextCommands();
+        journal.nextCommands(commands);
+        return commands;
+    }
+
+    @Override
+    public Commands nextCommands(long deadline) {
+        Commands commands = elevators instanceof DeadlineElevators
+                ? ((DeadlineElevators) elevators).nextCommands(deadline)
+                : elevators.nextCommands();
+        journal.nextCommands(commands);
+        return commands;
+    }
+
+    @Override
+    public void call(int floor, String to) {
+        journal.call(floor, to);
+        elevators.call(floor, to);
+    }
+
+    @Override
+    public void go(int cabin, int floorToGo) {
+        journal.go(cabin, floorToGo);
+        elevators.go(cabin, floorToGo);
+    }
+
+    @Override
+    public void userHasEntered(int cabin) {
+        journal.userHasEntered(cabin);
+        elevators.userHasEntered(cabin);
+    }
+
+    @Override
+    public void userHasExited(int cabin) {
+        journal.userHasExited(cabin);
+        elevators.userHasExited(cabin);
+    }
+
+    @Override
+    public void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+        journal.reset(cause, lowerFloor, higherFloor, cabinSize, cabinCount);
+        elevators.reset(cause, lowerFloor, higherFloor, cabinSize, cabinCount);
+    }
+
+    /**
+     * Not an input, nothing is recorded.
+     */
+    @Override
+    public void prepareNextCommands() {
+        if (elevators instanceof SpeculativeElevators) {
+            ((SpeculativeElevators) elevators).prepareNextCommands();
+        }
+    }
+}
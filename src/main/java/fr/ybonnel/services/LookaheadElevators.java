@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Command;
+import fr.ybonnel.services.model.UserTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatcher of {@link ByUser2Elevators}, but commands of cabins are chosen with Monte Carlo rollouts over next ticks.
+ * <p>
+ * For each closed cabin with users, each possible command is played on copies of the cabin,
+ * then the cabin follows the algorithm of {@link ByUser2Elevator} for the next ticks of the horizon.
+ * Users entering a copy go to a random floor of their direction, all commands use the same random floors.
+ * The value of a rollout is the score of users exited during the horizon plus the estimated score of others at its end.
+ * </p>
+ * Rollouts run by rounds on a fork join pool and stop after the budget or at the deadline of the tick,
+ * the command of the algorithm is kept if no other command is better.
+ */
+public class LookaheadElevators extends ByUser2Elevators {
+
+    public static final int DEFAULT_HORIZON = 50;
+    public static final int DEFAULT_ROLLOUTS = 8;
+    public static final long DEFAULT_BUDGET_MICROS = 2000;
+
+    private static final Command[] CANDIDATES = {Command.OPEN_UP, Command.OPEN_DOWN, Command.UP, Command.DOWN};
+
+    /**
+     * Copy of a cabin for rollouts, one by thread of the pool.
+     */
+    private static final ThreadLocal<ByUser2Elevator> scratchCabins = new ThreadLocal<ByUser2Elevator>() {
+        @Override
+        protected ByUser2Elevator initialValue() {
+            return new ByUser2Elevator(false, new UserTable());
+        }
+    };
+
+    private final ForkJoinPool pool;
+    private final int horizon;
+    private final int maxRollouts;
+    private final long budgetNanos;
+    private int tick;
+
+    public LookaheadElevators(boolean log, int maxWaiting) {
+        this(log, maxWaiting, new ForkJoinPool(), DEFAULT_HORIZON, DEFAULT_ROLLOUTS, DEFAULT_BUDGET_MICROS);
+    }
+
+    /**
+     * @param pool pool of rollouts, can be shared by several buildings.
+     * @param horizon number of ticks simulated by a rollout.
+     * @param maxRollouts max number of rollouts of each command.
+     * @param budgetMicros time allowed to rollouts on each tick.
+     */
+    public LookaheadElevators(boolean log, int maxWaiting, ForkJoinPool pool, int horizon, int maxRollouts, long budgetMicros) {
+        super(false, log, maxWaiting);
+        this.pool = pool;
+        this.horizon = horizon;
+        this.maxRollouts = maxRollouts;
+        this.budgetNanos = TimeUnit.MICROSECONDS.toNanos(budgetMicros);
+    }
+
+    /**
+     * Rollouts of one command for one cabin.
+     */
+    private class Rollouts extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ByUser2Elevator cabin;
+        private final int cabinIndex;
+        private final Command command;
+        private final long deadline;
+        private long sumOfValues;
+        private int nbRollouts;
+
+        private Rollouts(ByUser2Elevator cabin, int cabinIndex, Command command, long deadline) {
+            this.cabin = cabin;
+            this.cabinIndex = cabinIndex;
+            this.command = command;
+            this.deadline = deadline;
+        }
+
+        /**
+         * One more rollout, if the deadline is not reached.
+         */
+        @Override
+        protected void compute() {
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
+            // Same seed for all commands of the cabin, so they are compared on the same destinations.
+            Random random = new Random(((long) tick * 1000 + cabinIndex) * 1000 + nbRollouts);
+            sumOfValues += rollout(scratchCabins.get(), random);
+            nbRollouts++;
+        }
+
+        private int rollout(ByUser2Elevator copy, Random random) {
+            copy.copyFrom(cabin);
+            int startScore = copy.getCurrentScore();
+            Command nextCommand = copy.playCommand(command);
+            for (int index = 1; index <= horizon; index++) {
+                if (nextCommand == Command.OPEN_UP || nextCommand == Command.OPEN_DOWN) {
+                    copy.simulateUsersOnOpen(random);
+                }
+                if (index == horizon) {
+                    break;
+                }
+                nextCommand = copy.nextCommand();
+            }
+            return copy.getCurrentScore() - startScore
+                    + Math.max(copy.estimateScore(copy.getCurrentFloor(), copy.getCurrentDirection(), true),
+                    copy.estimateScore(copy.getCurrentFloor(), copy.getCurrentDirection(), false));
+        }
+
+        private boolean isBetterThan(Rollouts other) {
+            // Means compared without division.
+            return other.nbRollouts == 0
+                    || nbRollouts > 0 && sumOfValues * other.nbRollouts > other.sumOfValues * nbRollouts;
+        }
+    }
+
+    @Override
+    protected void addNextCommands(List<ByUser2Elevator> elevators, List<Command> commands, long deadlineOfTick) {
+        tick++;
+        final long deadline = Math.min(System.nanoTime() + budgetNanos, deadlineOfTick);
+        final List<List<Rollouts>> rolloutsOfCabins = new ArrayList<>(elevators.size());
+        final List<Rollouts> allRollouts = new ArrayList<>();
+        for (int cabinIndex = 0; cabinIndex < elevators.size(); cabinIndex++) {
+            ByUser2Elevator cabin = elevators.get(cabinIndex);
+            List<Rollouts> rolloutsOfCabin = new ArrayList<>();
+            if (cabin.isClose() && cabin.hasFloorsToGo()) {
+                for (Command candidate : CANDIDATES) {
+                    if (isPossible(cabin, candidate)) {
+                        rolloutsOfCabin.add(new Rollouts(cabin, cabinIndex, candidate, deadline));
+                    }
+                }
+            }
+            rolloutsOfCabins.add(rolloutsOfCabin);
+            allRollouts.addAll(rolloutsOfCabin);
+        }
+
+        if (!allRollouts.isEmpty()) {
+            // By rounds of one rollout of each command of each cabin, so all cabins have rollouts at the deadline.
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    for (int round = 0; round < maxRollouts && System.nanoTime() < deadline; round++) {
+                        for (Rollouts rollouts : allRollouts) {
+                            rollouts.reinitialize();
+                        }
+                        invokeAll(allRollouts);
+                    }
+                }
+            });
+        }
+
+        for (int cabinIndex = 0; cabinIndex < elevators.size(); cabinIndex++) {
+            ByUser2Elevator cabin = elevators.get(cabinIndex);
+            commands.add(isPassed(deadlineOfTick) ? cabin.nextCommandWithoutScores()
+                    : nextCommand(cabin, rolloutsOfCabins.get(cabinIndex)));
+        }
+    }
+
+    private boolean isPossible(ByUser2Elevator cabin, Command command) {
+        return command == Command.UP && cabin.getCurrentFloor() < cabin.higherFloor
+                || command == Command.DOWN && cabin.getCurrentFloor() > cabin.lowerFloor
+                || command == Command.OPEN_UP || command == Command.OPEN_DOWN;
+    }
+
+    /**
+     * Command of the algorithm, unless a command has a better mean on rollouts.
+     */
+    private Command nextCommand(ByUser2Elevator cabin, List<Rollouts> rolloutsOfCabin) {
+        if (rolloutsOfCabin.isEmpty()) {
+            return cabin.nextCommand();
+        }
+        Command greedyCommand = greedyCommand(cabin);
+        Rollouts greedy = null;
+        for (Rollouts rollouts : rolloutsOfCabin) {
+            if (rollouts.command == greedyCommand) {
+                greedy = rollouts;
+            }
+        }
+        if (greedy == null || greedy.nbRollouts == 0) {
+            return cabin.nextCommand();
+        }
+        Rollouts best = greedy;
+        for (Rollouts rollouts : rolloutsOfCabin) {
+            if (rollouts.isBetterThan(best)) {
+                best = rollouts;
+            }
+        }
+        return best == greedy ? cabin.nextCommand() : cabin.playCommand(best.command);
+    }
+
+    private Command greedyCommand(ByUser2Elevator cabin) {
+        ByUser2Elevator copy = scratchCabins.get();
+        copy.copyFrom(cabin);
+        return copy.nextCommand();
+    }
+}
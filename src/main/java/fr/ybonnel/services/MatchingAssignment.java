@@ -0,0 +1,362 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Direction;
+
+import java.util.List;
+
+/**
+ * Assignment of waiting users to cabins with the min total cost, as a min cost flow from calls to cabins.
+ * <p>
+ * A call is the users waiting on a floor to go to a direction.
+ * Its cost for a cabin is the ETA of the cabin to take them, minus the ETA of the fastest cabin :
+ * the cabin takes them on its way if they go to its direction ahead of it,
+ * else it first goes to the farthest floor of its users (or of the call) and comes back.
+ * Places of a cabin are its free places, then each full cabin before the place costs a round trip of the building.
+ * Without lack of places, all assignments to the fastest cabins have no cost, so users stay in their cabin.
+ * </p>
+ * The solution starts from the current assignment (the solution of the previous tick, with new users in their
+ * nearest cabin), and negative cycles of the residual graph are cancelled until there is none.
+ * Users are aggregated by call, so the graph doesn't grow with the number of waiting users,
+ * and each cancelled cycle lowers the total cost, so the assignment can stop at the deadline.
+ */
+class MatchingAssignment {
+
+    private static final int NO_NODE = -1;
+    private static final int NB_DIRECTIONS = Direction.values().length;
+
+    private int lowerFloor;
+    private int nbFloors;
+    private int nbCalls;
+    private int nbCabins;
+    private int sink;
+    private int roundTrip;
+
+    // Waiting users of each call (floor from lowerFloor, then direction) assigned to each cabin, and their cost.
+    private int[][] flow = new int[0][0];
+    private int[][] costs = new int[0][0];
+    private int[] load = new int[0];
+    private int[] freePlaces = new int[0];
+    private int[] cabinSizes = new int[0];
+    // Calls with users, the only ones which can be on a cycle.
+    private int[] activeCalls = new int[0];
+    private int nbActiveCalls;
+
+    // Nodes are calls, then cabins, then the sink.
+    private int[] distances = new int[1];
+    private int[] predecessors = new int[1];
+    private int[] cycle = new int[1];
+
+    void reset(int lowerFloor, int higherFloor, int nbCabins) {
+        this.lowerFloor = lowerFloor;
+        this.nbFloors = higherFloor - lowerFloor + 1;
+        this.nbCalls = nbFloors * NB_DIRECTIONS;
+        this.nbCabins = nbCabins;
+        this.sink = nbCalls + nbCabins;
+        this.roundTrip = 2 * (higherFloor - lowerFloor);
+        flow = new int[nbCalls][nbCabins];
+        costs = new int[nbCalls][nbCabins];
+        load = new int[nbCabins];
+        freePlaces = new int[nbCabins];
+        cabinSizes = new int[nbCabins];
+        activeCalls = new int[nbCalls];
+        distances = new int[sink + 1];
+        predecessors = new int[sink + 1];
+        cycle = new int[sink + 1];
+    }
+
+    private int floorOfCall(int call) {
+        return lowerFloor + call / NB_DIRECTIONS;
+    }
+
+    private static Direction directionOfCall(int call) {
+        return Direction.values()[call % NB_DIRECTIONS];
+    }
+
+    /**
+     * Move waiting users between cabins to the assignment of min cost.
+     * @param deadline in {@link System#nanoTime()} time, the assignment is then kept as is.
+     * @param moves receives each move of a user, in the order of the moves.
+     * @return false if the assignment stopped at the deadline.
+     */
+    boolean assign(List<ByUser2Elevator> cabins, long deadline, Moves moves) {
+        if (cabins.size() != nbCabins) {
+            return true;
+        }
+        readAssignment(cabins);
+        int cancelledCycles = 0;
+        boolean optimal = true;
+        while (true) {
+            if (ByUser2Elevators.isPassed(deadline)) {
+                optimal = false;
+                break;
+            }
+            int nodeOfCycle = findNegativeCycle(deadline);
+            if (nodeOfCycle == NO_NODE) {
+                optimal = !ByUser2Elevators.isPassed(deadline);
+                break;
+            }
+            cancelCycle(nodeOfCycle);
+            cancelledCycles++;
+        }
+        if (cancelledCycles > 0) {
+            moveUsers(cabins, moves);
+        }
+        return optimal;
+    }
+
+    private void readAssignment(List<ByUser2Elevator> cabins) {
+        for (int cabin = 0; cabin < nbCabins; cabin++) {
+            ByUser2Elevator elevator = cabins.get(cabin);
+            FloorUsers waitingUsers = elevator.getWaitingUsers();
+            load[cabin] = waitingUsers.size();
+            for (int call = 0; call < nbCalls; call++) {
+                flow[call][cabin] = waitingUsers.countWaiting(floorOfCall(call), directionOfCall(call));
+            }
+            readCosts(cabin, elevator);
+            cabinSizes[cabin] = Math.max(1, elevator.cabinSize);
+            freePlaces[cabin] = Math.max(0, elevator.cabinSize - elevator.getPeopleInsideElevator());
+        }
+        nbActiveCalls = 0;
+        for (int call = 0; call < nbCalls; call++) {
+            int[] costsOfCall = costs[call];
+            int[] flowOfCall = flow[call];
+            int fastest = Integer.MAX_VALUE;
+            boolean hasUsers = false;
+            for (int cabin = 0; cabin < nbCabins; cabin++) {
+                fastest = Math.min(fastest, costsOfCall[cabin]);
+                hasUsers |= flowOfCall[cabin] > 0;
+            }
+            for (int cabin = 0; cabin < nbCabins; cabin++) {
+                costsOfCall[cabin] -= fastest;
+            }
+            if (hasUsers) {
+                activeCalls[nbActiveCalls++] = call;
+            }
+        }
+    }
+
+    /**
+     * ETA of the cabin for each call.
+     */
+    private void readCosts(int cabin, ByUser2Elevator elevator) {
+        int cabinFloor = elevator.getCurrentFloor();
+        int farthestFloor = elevator.farthestFloorToGo();
+        Direction cabinDirection = elevator.getCurrentDirection();
+        for (int call = 0; call < nbCalls; call++) {
+            int floor = floorOfCall(call);
+            Direction direction = directionOfCall(call);
+            int eta;
+            if (cabinDirection == null || farthestFloor == cabinFloor) {
+                // Free to go to the call.
+                eta = Math.abs(floor - cabinFloor);
+            } else if (direction == cabinDirection && cabinDirection.floorIsOnDirection(cabinFloor, floor)) {
+                // On its way.
+                eta = Math.abs(floor - cabinFloor);
+            } else if (direction != cabinDirection) {
+                // Taken when the cabin comes back from the farthest of its users and the call.
+                int turnFloor = cabinDirection.floorIsOnDirection(farthestFloor, floor) ? floor : farthestFloor;
+                eta = Math.abs(turnFloor - cabinFloor) + Math.abs(turnFloor - floor);
+            } else {
+                // Behind the cabin, taken once it comes back.
+                eta = Math.abs(farthestFloor - cabinFloor) + Math.abs(farthestFloor - floor);
+            }
+            costs[call][cabin] = eta;
+        }
+    }
+
+    /**
+     * Cost of the place (from 0) of a waiting user in a cabin.
+     */
+    private int costOfPlace(int cabin, int place) {
+        if (place < freePlaces[cabin]) {
+            return 0;
+        }
+        return roundTrip * (1 + (place - freePlaces[cabin]) / cabinSizes[cabin]);
+    }
+
+    /**
+     * First place after the places of same cost than the place.
+     */
+    private int endOfPlaces(int cabin, int place) {
+        if (place < freePlaces[cabin]) {
+            return freePlaces[cabin];
+        }
+        return freePlaces[cabin] + (1 + (place - freePlaces[cabin]) / cabinSizes[cabin]) * cabinSizes[cabin];
+    }
+
+    /**
+     * First place of the places of same cost than the place.
+     */
+    private int startOfPlaces(int cabin, int place) {
+        if (place < freePlaces[cabin]) {
+            return 0;
+        }
+        return freePlaces[cabin] + ((place - freePlaces[cabin]) / cabinSizes[cabin]) * cabinSizes[cabin];
+    }
+
+    /**
+     * Bellman-Ford from all nodes on the residual graph :
+     * call to cabin (one more user of the call in the cabin), cabin to call (one less) if the cabin has users of the call,
+     * cabin to sink (one more place taken) and sink to cabin (one less) if the cabin has users.
+     * Calls without users have no entering edge, so they are left out.
+     * @return a node of a negative cycle, or NO_NODE.
+     */
+    private int findNegativeCycle(long deadline) {
+        for (int node = 0; node <= sink; node++) {
+            distances[node] = 0;
+            predecessors[node] = NO_NODE;
+        }
+        int nbNodes = nbActiveCalls + nbCabins + 1;
+        int relaxedNode = NO_NODE;
+        // One pass more than the number of nodes, from the virtual source.
+        for (int pass = 0; pass <= nbNodes; pass++) {
+            relaxedNode = NO_NODE;
+            for (int activeCall = 0; activeCall < nbActiveCalls; activeCall++) {
+                int call = activeCalls[activeCall];
+                int[] costsOfCall = costs[call];
+                int[] flowOfCall = flow[call];
+                for (int cabin = 0; cabin < nbCabins; cabin++) {
+                    int cabinNode = nbCalls + cabin;
+                    if (distances[call] + costsOfCall[cabin] < distances[cabinNode]) {
+                        distances[cabinNode] = distances[call] + costsOfCall[cabin];
+                        predecessors[cabinNode] = call;
+                        relaxedNode = cabinNode;
+                    }
+                    if (flowOfCall[cabin] > 0 && distances[cabinNode] - costsOfCall[cabin] < distances[call]) {
+                        distances[call] = distances[cabinNode] - costsOfCall[cabin];
+                        predecessors[call] = cabinNode;
+                        relaxedNode = call;
+                    }
+                }
+            }
+            for (int cabin = 0; cabin < nbCabins; cabin++) {
+                int cabinNode = nbCalls + cabin;
+                int costOfNextPlace = costOfPlace(cabin, load[cabin]);
+                if (distances[cabinNode] + costOfNextPlace < distances[sink]) {
+                    distances[sink] = distances[cabinNode] + costOfNextPlace;
+                    predecessors[sink] = cabinNode;
+                    relaxedNode = sink;
+                }
+                if (load[cabin] > 0) {
+                    int costOfLastPlace = costOfPlace(cabin, load[cabin] - 1);
+                    if (distances[sink] - costOfLastPlace < distances[cabinNode]) {
+                        distances[cabinNode] = distances[sink] - costOfLastPlace;
+                        predecessors[cabinNode] = sink;
+                        relaxedNode = cabinNode;
+                    }
+                }
+            }
+            if (relaxedNode == NO_NODE || ByUser2Elevators.isPassed(deadline)) {
+                return NO_NODE;
+            }
+        }
+        // Still relaxed after all passes : go back enough to be on the cycle.
+        int node = relaxedNode;
+        for (int step = 0; step < nbNodes && node != NO_NODE; step++) {
+            node = predecessors[node];
+        }
+        return node;
+    }
+
+    /**
+     * Push the max number of users along the cycle, without changing the cost of its edges.
+     */
+    private void cancelCycle(int nodeOfCycle) {
+        int length = 0;
+        int node = nodeOfCycle;
+        do {
+            cycle[length++] = node;
+            node = predecessors[node];
+        } while (node != nodeOfCycle);
+
+        int users = Integer.MAX_VALUE;
+        for (int index = 0; index < length; index++) {
+            users = Math.min(users, capacity(cycle[(index + 1) % length], cycle[index]));
+        }
+        for (int index = 0; index < length; index++) {
+            push(cycle[(index + 1) % length], cycle[index], users);
+        }
+    }
+
+    private boolean isCall(int node) {
+        return node < nbCalls;
+    }
+
+    private int capacity(int from, int to) {
+        if (isCall(from)) {
+            return Integer.MAX_VALUE;
+        }
+        if (isCall(to)) {
+            return flow[to][from - nbCalls];
+        }
+        if (to == sink) {
+            int cabin = from - nbCalls;
+            return endOfPlaces(cabin, load[cabin]) - load[cabin];
+        }
+        int cabin = to - nbCalls;
+        return load[cabin] - startOfPlaces(cabin, load[cabin] - 1);
+    }
+
+    private void push(int from, int to, int users) {
+        if (isCall(from)) {
+            flow[from][to - nbCalls] += users;
+        } else if (isCall(to)) {
+            flow[to][from - nbCalls] -= users;
+        } else if (to == sink) {
+            load[from - nbCalls] += users;
+        } else {
+            load[to - nbCalls] -= users;
+        }
+    }
+
+    /**
+     * Move users of cabins with more users of a call than the solution to cabins with less,
+     * last arrived users first.
+     */
+    private void moveUsers(List<ByUser2Elevator> cabins, Moves moves) {
+        for (int activeCall = 0; activeCall < nbActiveCalls; activeCall++) {
+            int call = activeCalls[activeCall];
+            int floor = floorOfCall(call);
+            Direction direction = directionOfCall(call);
+            int toCabin = 0;
+            for (int fromCabin = 0; fromCabin < nbCabins; fromCabin++) {
+                FloorUsers waitingUsers = cabins.get(fromCabin).getWaitingUsers();
+                int index = waitingUsers.count(floor) - 1;
+                while (waitingUsers.countWaiting(floor, direction) > flow[call][fromCabin]) {
+                    while (waitingUsers.getTable().getDirectionCalled(waitingUsers.get(floor, index)) != direction) {
+                        index--;
+                    }
+                    while (cabins.get(toCabin).getWaitingUsers().countWaiting(floor, direction) >= flow[call][toCabin]) {
+                        toCabin++;
+                    }
+                    moves.move(floor, index, fromCabin, toCabin);
+                    cabins.get(toCabin).addUserWaiting(waitingUsers.remove(floor, index));
+                    index--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives moves of users, before each one is done.
+     */
+    interface Moves {
+        void move(int floor, int index, int fromCabin, int toCabin);
+    }
+}
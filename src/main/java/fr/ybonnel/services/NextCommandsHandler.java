@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Commands;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answer to nextCommands by writing the bytes of commands in the response,
+ * instead of rendering them in a String through the route.
+ */
+public class NextCommandsHandler extends AbstractHandler {
+
+    private static final String CONTENT_TYPE = "text/plain;charset=UTF-8";
+
+    private final Map<String, ElevatorService> servicesByPath = new HashMap<>();
+
+    public NextCommandsHandler(Collection<ElevatorService> elevatorServices) {
+        for (ElevatorService elevatorService : elevatorServices) {
+            servicesByPath.put(elevatorService.getNextCommandsPath(), elevatorService);
+        }
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        ElevatorService elevatorService = servicesByPath.get(target);
+        if (elevatorService == null || !"GET".equals(request.getMethod())) {
+            return;
+        }
+        Commands commands = elevatorService.handleNextCommands();
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(commands.byteLength());
+        commands.writeTo(response.getOutputStream());
+        baseRequest.setHandled(true);
+    }
+}
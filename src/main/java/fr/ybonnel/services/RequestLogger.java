@@ -0,0 +1,177 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs of requests, written by a dedicated thread.
+ * Request threads only put entries in a ring buffer, entries are dropped when it's full.
+ * Each route can be sampled with -Delevator.log.sampling=call=100,go=100,nextCommands=10
+ * (1 to log every request, N to log one request out of N, 0 to log nothing).
+ */
+public class RequestLogger {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestLogger.class);
+
+    private static final int CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final RequestLogger instance = new RequestLogger(CAPACITY, System.getProperty("elevator.log.sampling", ""));
+
+    public static RequestLogger getInstance() {
+        return instance;
+    }
+
+    private static class Entry {
+        private final Logger logger;
+        private final String format;
+        private final Object[] arguments;
+
+        private Entry(Logger logger, String format, Object[] arguments) {
+            this.logger = logger;
+            this.format = format;
+            this.arguments = arguments;
+        }
+    }
+
+    private final Map<String, Integer> sampleRates;
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final AtomicLong dropped = new AtomicLong();
+
+    RequestLogger(int capacity, String sampling) {
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        entries = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        sampleRates = parseSampling(sampling);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "request-logger");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Called by the class initializer : a wrong rate is only logged, and the route is logged at each request.
+     */
+    private static Map<String, Integer> parseSampling(String sampling) {
+        Map<String, Integer> sampleRates = new HashMap<>();
+        for (String routeAndRate : sampling.split(",")) {
+            String[] keyValue = routeAndRate.split("=");
+            if (keyValue.length == 2) {
+                try {
+                    sampleRates.put(keyValue[0].trim(), Integer.parseInt(keyValue[1].trim()));
+                } catch (NumberFormatException exception) {
+                    logger.warn("Invalid sampling rate of route {} : {}, each request is logged", keyValue[0].trim(), keyValue[1].trim());
+                    sampleRates.put(keyValue[0].trim(), 1);
+                }
+            } else if (!routeAndRate.trim().isEmpty()) {
+                logger.warn("Invalid sampling of route : {}, expected route=rate", routeAndRate.trim());
+            }
+        }
+        return sampleRates;
+    }
+
+    /**
+     * @return true if this request of the route must be logged.
+     */
+    public boolean isSampled(String route) {
+        Integer rate = sampleRates.get(route);
+        if (rate == null || rate == 1) {
+            return true;
+        }
+        if (rate <= 0) {
+            return false;
+        }
+        AtomicLong counter = counters.get(route);
+        if (counter == null) {
+            counters.putIfAbsent(route, new AtomicLong());
+            counter = counters.get(route);
+        }
+        return counter.getAndIncrement() % rate == 0;
+    }
+
+    public void info(String route, Logger logger, String format, Object... arguments) {
+        if (logger.isInfoEnabled() && isSampled(route)) {
+            publish(new Entry(logger, format, arguments));
+        }
+    }
+
+    /**
+     * Log without sampling, arguments must not be modified after the call.
+     */
+    public void info(Logger logger, String format, Object... arguments) {
+        if (logger.isInfoEnabled()) {
+            publish(new Entry(logger, format, arguments));
+        }
+    }
+
+    private void publish(Entry entry) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= entries.length()) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        entries.lazySet((int) sequence & mask, entry);
+    }
+
+    private void loop() {
+        while (true) {
+            int index = (int) tail & mask;
+            Entry entry = entries.get(index);
+            if (entry == null) {
+                logDropped();
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            entries.lazySet(index, null);
+            tail++;
+            try {
+                entry.logger.info(entry.format, entry.arguments);
+            } catch (RuntimeException exception) {
+                logger.error("Error while logging", exception);
+            }
+        }
+    }
+
+    private void logDropped() {
+        long nbDropped = dropped.getAndSet(0);
+        if (nbDropped > 0) {
+            logger.warn("{} log entries dropped", nbDropped);
+        }
+    }
+}
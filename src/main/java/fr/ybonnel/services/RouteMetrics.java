@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms of routes, rendered in prometheus text format.
+ * Metrics of a building have a building label.
+ */
+public class RouteMetrics {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String LATENCY = "elevator_request_latency_seconds";
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final String labels;
+
+    public RouteMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param building name of building, null for no building label.
+     */
+    public RouteMetrics(String building) {
+        this.labels = building == null ? "" : "building=\"" + building + "\",";
+    }
+
+    public LatencyHistogram getHistogram(String route) {
+        LatencyHistogram histogram = histograms.get(route);
+        if (histogram == null) {
+            histograms.putIfAbsent(route, new LatencyHistogram());
+            histogram = histograms.get(route);
+        }
+        return histogram;
+    }
+
+    public void record(String route, long nanos) {
+        getHistogram(route).record(nanos);
+    }
+
+    public String toPrometheus() {
+        return toPrometheus(Collections.singletonList(this));
+    }
+
+    /**
+     * Render metrics of several buildings, each metric is described once.
+     */
+    public static String toPrometheus(Collection<RouteMetrics> allMetrics) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# HELP ").append(LATENCY).append(" Latency of elevator routes.\n");
+        builder.append("# TYPE ").append(LATENCY).append(" summary\n");
+        for (RouteMetrics metrics : allMetrics) {
+            for (Map.Entry<String, LatencyHistogram> entry : metrics.histograms.entrySet()) {
+                LatencyHistogram histogram = entry.getValue();
+                for (double quantile : QUANTILES) {
+                    metrics.appendSample(builder, LATENCY, entry.getKey(), ",quantile=\"" + quantile + "\"", histogram.getValueAtQuantile(quantile));
+                }
+                metrics.appendSample(builder, LATENCY + "_sum", entry.getKey(), "", histogram.getSum());
+                builder.append(LATENCY).append("_count{").append(metrics.labels).append("route=\"").append(entry.getKey()).append("\"} ")
+                        .append(histogram.getCount()).append('\n');
+            }
+        }
+        builder.append("# HELP ").append(LATENCY).append("_max Max latency of elevator routes.\n");
+        builder.append("# TYPE ").append(LATENCY).append("_max gauge\n");
+        for (RouteMetrics metrics : allMetrics) {
+            for (Map.Entry<String, LatencyHistogram> entry : metrics.histograms.entrySet()) {
+                metrics.appendSample(builder, LATENCY + "_max", entry.getKey(), "", entry.getValue().getMax());
+            }
+        }
+        return builder.toString();
+    }
+
+    private void appendSample(StringBuilder builder, String name, String route, String otherLabels, long nanos) {
+        builder.append(name).append('{').append(labels).append("route=\"").append(route).append('"').append(otherLabels).append("} ")
+                .append(String.format(Locale.ENGLISH, "%.9f", nanos / (double) TimeUnit.SECONDS.toNanos(1)))
+                .append('\n');
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Command;
+import fr.ybonnel.services.model.Commands;
+import fr.ybonnel.services.model.Direction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Model of a building driven by one candidate algorithm, as the game server would do :
+ * users are the live calls, cabins move with the commands of the candidate,
+ * and users go to destinations learned from production.
+ * Only used by the thread of {@link ShadowEvaluator}.
+ */
+class ShadowBuilding {
+
+    private static final int MAX_DESTINATIONS_BY_FLOOR = 64;
+
+    private static class ShadowUser {
+        private final int startTick;
+        private final int startFloor;
+        private final Direction direction;
+        private int destinationFloor;
+        private int enterTick;
+        private int cabin = -1;
+
+        private ShadowUser(int startTick, int startFloor, Direction direction) {
+            this.startTick = startTick;
+            this.startFloor = startFloor;
+            this.direction = direction;
+        }
+
+        private int exitAndComputeScore(int tick) {
+            int score = 21 + 2 + Math.abs(startFloor - destinationFloor) - ((enterTick - startTick) / 2) - (tick - enterTick);
+            return Math.max(0, score);
+        }
+    }
+
+    private final String name;
+    private final Elevators elevators;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final Random random = new Random(0);
+
+    private int lowerFloor;
+    private int higherFloor;
+    private int cabinSize;
+    private int[] floors = new int[0];
+    private boolean[] open = new boolean[0];
+    private int[] nbUsersInCabins = new int[0];
+    private final List<ShadowUser> users = new ArrayList<>();
+    private final Map<Integer, ArrayDeque<Integer>> learnedDestinations = new HashMap<>();
+
+    private volatile int score;
+    private volatile int resets;
+    private int nextReset;
+
+    ShadowBuilding(String name, Elevators elevators) {
+        this.name = name;
+        this.elevators = elevators;
+    }
+
+    /**
+     * Reset of the live building.
+     */
+    void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+        learnedDestinations.clear();
+        resetModel(cause, lowerFloor, higherFloor, cabinSize, cabinCount);
+    }
+
+    private void resetModel(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+        this.lowerFloor = lowerFloor;
+        this.higherFloor = higherFloor;
+        this.cabinSize = cabinSize;
+        floors = new int[cabinCount];
+        open = new boolean[cabinCount];
+        nbUsersInCabins = new int[cabinCount];
+        users.clear();
+        elevators.reset(cause, lowerFloor, higherFloor, cabinSize, cabinCount);
+    }
+
+    /**
+     * Reset caused by the candidate, with the penalty of the game server.
+     */
+    private void resetByCandidate(String cause) {
+        score -= nextReset;
+        nextReset += 2;
+        resets++;
+        resetModel(cause, lowerFloor, higherFloor, cabinSize, floors.length);
+    }
+
+    void call(int tick, int floor, String to) {
+        users.add(new ShadowUser(tick, floor, Direction.valueOf(to)));
+        elevators.call(floor, to);
+    }
+
+    void learnDestination(int startFloor, int destinationFloor) {
+        int key = key(startFloor, destinationFloor > startFloor ? Direction.UP : Direction.DOWN);
+        ArrayDeque<Integer> destinations = learnedDestinations.get(key);
+        if (destinations == null) {
+            destinations = new ArrayDeque<>();
+            learnedDestinations.put(key, destinations);
+        }
+        if (destinations.size() == MAX_DESTINATIONS_BY_FLOOR) {
+            destinations.removeFirst();
+        }
+        destinations.addLast(destinationFloor);
+    }
+
+    private static int key(int floor, Direction direction) {
+        return floor * 2 + direction.ordinal();
+    }
+
+    /**
+     * Destination of a user entering the cabin : the first one learned from production on this floor and direction,
+     * or a random floor in the direction if production didn't give one yet.
+     */
+    private int nextDestination(int floor, Direction direction) {
+        ArrayDeque<Integer> destinations = learnedDestinations.get(key(floor, direction));
+        if (destinations != null && !destinations.isEmpty()) {
+            return destinations.removeFirst();
+        }
+        if (direction == Direction.UP) {
+            return floor + 1 + random.nextInt(higherFloor - floor);
+        }
+        return floor - 1 - random.nextInt(floor - lowerFloor);
+    }
+
+    void tick(int tick) {
+        long startTime = System.nanoTime();
+        Commands commands = elevators.nextCommands();
+        latencies.record(System.nanoTime() - startTime);
+
+        List<Command> commandsOfCabins = commands.getCommands();
+        if (commandsOfCabins.size() == 1 && commandsOfCabins.get(0) == Command.FORCERESET) {
+            resetByCandidate("FORCERESET");
+            return;
+        }
+        if (commandsOfCabins.size() != floors.length) {
+            resetByCandidate("Incompatible command");
+            return;
+        }
+        for (int cabin = 0; cabin < floors.length; cabin++) {
+            Command command = commandsOfCabins.get(cabin);
+            if (command != Command.CLOSE && open[cabin]
+                    || command == Command.CLOSE && !open[cabin]
+                    || command == Command.UP && floors[cabin] == higherFloor
+                    || command == Command.DOWN && floors[cabin] == lowerFloor
+                    || command == Command.FORCERESET) {
+                resetByCandidate("Incompatible command");
+                return;
+            }
+        }
+
+        for (int cabin = 0; cabin < floors.length; cabin++) {
+            Direction directionOfOpen = null;
+            switch (commandsOfCabins.get(cabin)) {
+                case OPEN_UP:
+                    directionOfOpen = Direction.UP;
+                    open[cabin] = true;
+                    break;
+                case OPEN_DOWN:
+                    directionOfOpen = Direction.DOWN;
+                    open[cabin] = true;
+                    break;
+                case CLOSE:
+                    open[cabin] = false;
+                    break;
+                case UP:
+                    floors[cabin]++;
+                    break;
+                case DOWN:
+                    floors[cabin]--;
+                    break;
+                default:
+                    break;
+            }
+            if (open[cabin]) {
+                exitUsers(tick, cabin);
+                enterUsers(tick, cabin, directionOfOpen);
+            }
+        }
+    }
+
+    private void exitUsers(int tick, int cabin) {
+        for (Iterator<ShadowUser> iterator = users.iterator(); iterator.hasNext(); ) {
+            ShadowUser user = iterator.next();
+            if (user.cabin == cabin && user.destinationFloor == floors[cabin]) {
+                score += user.exitAndComputeScore(tick);
+                nbUsersInCabins[cabin]--;
+                iterator.remove();
+                elevators.userHasExited(cabin);
+            }
+        }
+    }
+
+    private void enterUsers(int tick, int cabin, Direction directionOfOpen) {
+        for (ShadowUser user : users) {
+            if (nbUsersInCabins[cabin] >= cabinSize) {
+                return;
+            }
+            if (user.cabin == -1 && user.startFloor == floors[cabin] && user.direction == directionOfOpen
+                    && (directionOfOpen == Direction.UP ? user.startFloor < higherFloor : user.startFloor > lowerFloor)) {
+                user.cabin = cabin;
+                user.enterTick = tick;
+                user.destinationFloor = nextDestination(user.startFloor, user.direction);
+                nbUsersInCabins[cabin]++;
+                elevators.userHasEntered(cabin);
+                elevators.go(cabin, user.destinationFloor);
+            }
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getScore() {
+        return score;
+    }
+
+    int getResets() {
+        return resets;
+    }
+
+    LatencyHistogram getLatencies() {
+        return latencies;
+    }
+}
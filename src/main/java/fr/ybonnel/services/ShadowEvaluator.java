@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Command;
+import fr.ybonnel.services.model.Commands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mirror of the live events to candidate algorithms, each one running in its own {@link ShadowBuilding}.
+ * Events are applied on a dedicated thread, they are dropped if the thread is late.
+ * Destinations of users are learned from the go of production following the entry of a user.
+ */
+public class ShadowEvaluator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShadowEvaluator.class);
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Tick of production, with the commands sent to cabins.
+     */
+    private static class Tick {
+        private final Command[] commands;
+
+        private Tick(Command[] commands) {
+            this.commands = commands;
+        }
+    }
+
+    private final List<ShadowBuilding> buildings = new ArrayList<>();
+    private final BlockingQueue<Object> messages;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+
+    // State of production, only used by the shadow thread.
+    private int currentTick = -1;
+    private int[] productionFloors = new int[0];
+    private int lowerFloor;
+    private int higherFloor;
+
+    public ShadowEvaluator(int capacity) {
+        messages = new ArrayBlockingQueue<>(capacity);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "elevator-shadow");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Candidates must be added before start.
+     */
+    public void addCandidate(String name, Elevators elevators) {
+        buildings.add(new ShadowBuilding(name, elevators));
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        thread.interrupt();
+    }
+
+    /**
+     * Events and ticks must be mirrored in the order of production, as {@link ShadowedElevators} does :
+     * destinations are learned from the floors of production cabins at the go.
+     */
+    public void mirror(ElevatorEvent event) {
+        offer(event);
+    }
+
+    /**
+     * @param commands commands of production, copied because they can be reused.
+     */
+    public void mirrorTick(Commands commands) {
+        offer(new Tick(commands.getCommands().toArray(new Command[commands.getCommands().size()])));
+    }
+
+    private void offer(Object message) {
+        if (!messages.offer(message)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void consume() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Object message = messages.take();
+                if (message instanceof Tick) {
+                    applyTick((Tick) message);
+                } else {
+                    apply((ElevatorEvent) message);
+                }
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException exception) {
+                logger.error("Error in shadow evaluation", exception);
+            }
+        }
+    }
+
+    private void apply(ElevatorEvent event) {
+        switch (event.getType()) {
+            case RESET:
+                currentTick = -1;
+                lowerFloor = event.getLowerFloor();
+                higherFloor = event.getHigherFloor();
+                productionFloors = new int[event.getCabinCount()];
+                for (ShadowBuilding building : buildings) {
+                    building.reset(event.getCause(), event.getLowerFloor(), event.getHigherFloor(), event.getCabinSize(), event.getCabinCount());
+                }
+                break;
+            case CALL:
+                for (ShadowBuilding building : buildings) {
+                    building.call(currentTick, event.getAtFloor(), event.getTo());
+                }
+                break;
+            case GO:
+                int cabin = event.getCabin();
+                if (cabin >= 0 && cabin < productionFloors.length && event.getFloorToGo() != productionFloors[cabin]
+                        && event.getFloorToGo() >= lowerFloor && event.getFloorToGo() <= higherFloor) {
+                    for (ShadowBuilding building : buildings) {
+                        building.learnDestination(productionFloors[cabin], event.getFloorToGo());
+                    }
+                }
+                break;
+            default:
+                // Entries and exits of candidates come from their own model.
+                break;
+        }
+    }
+
+    private void applyTick(Tick tick) {
+        currentTick++;
+        if (tick.commands.length == productionFloors.length) {
+            for (int cabin = 0; cabin < productionFloors.length; cabin++) {
+                if (tick.commands[cabin] == Command.UP) {
+                    productionFloors[cabin]++;
+                } else if (tick.commands[cabin] == Command.DOWN) {
+                    productionFloors[cabin]--;
+                }
+            }
+        } else {
+            Arrays.fill(productionFloors, 0);
+        }
+        for (ShadowBuilding building : buildings) {
+            building.tick(currentTick);
+        }
+    }
+
+    /**
+     * @param productionLatencies latencies of nextCommands of production, to compare with candidates.
+     */
+    public String report(LatencyHistogram productionLatencies) {
+        StringBuilder builder = new StringBuilder();
+        appendLatencies(builder.append("production"), productionLatencies).append('\n');
+        for (ShadowBuilding building : buildings) {
+            builder.append(building.getName())
+                    .append(" score=").append(building.getScore())
+                    .append(" resets=").append(building.getResets());
+            appendLatencies(builder, building.getLatencies()).append('\n');
+        }
+        builder.append("dropped events=").append(dropped.get()).append('\n');
+        return builder.toString();
+    }
+
+    private static StringBuilder appendLatencies(StringBuilder builder, LatencyHistogram latencies) {
+        return builder.append(" ticks=").append(latencies.getCount())
+                .append(String.format(Locale.ENGLISH, " p50=%.1fus p99=%.1fus max=%.1fus",
+                        latencies.getValueAtQuantile(0.5) / (double) TimeUnit.MICROSECONDS.toNanos(1),
+                        latencies.getValueAtQuantile(0.99) / (double) TimeUnit.MICROSECONDS.toNanos(1),
+                        latencies.getMax() / (double) TimeUnit.MICROSECONDS.toNanos(1)));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Commands;
+
+/**
+ * Mirror each input of elevators and each tick to a shadow evaluator, once applied.
+ * Used with the same lock or event loop as elevators, so the shadow receives them in the order of production,
+ * and each go follows the tick it belongs to.
+ */
+public class ShadowedElevators implements SpeculativeElevators, DeadlineElevators {
+
+    private final Elevators elevators;
+    private volatile ShadowEvaluator shadowEvaluator;
+
+    public ShadowedElevators(Elevators elevators) {
+        this.elevators = elevators;
+    }
+
+    /**
+     * @param shadowEvaluator evaluator receiving next inputs, null to stop mirroring.
+     */
+    public void setShadowEvaluator(ShadowEvaluator shadowEvaluator) {
+        this.shadowEvaluator = shadowEvaluator;
+    }
+
+    private void mirror(ElevatorEvent event) {
+        ShadowEvaluator shadow = shadowEvaluator;
+        if (shadow != null) {
+            shadow.mirror(event);
+        }
+    }
+
+    private Commands mirrorTick(Commands commands) {
+        ShadowEvaluator shadow = shadowEvaluator;
+        if (shadow != null && commands != null) {
+            shadow.mirrorTick(commands);
+        }
+        return commands;
+    }
+
+    @Override
+    public void logState() {
+        elevators.logState();
+    }
+
+    @Override
+    public Commands nextCommands() {
+        return mirrorTick(elevators.nextCommands());
+    }
+
+    @Override
+    public Commands nextCommands(long deadline) {
+        return mirrorTick(elevators instanceof DeadlineElevators
+                ? ((DeadlineElevators) elevators).nextCommands(deadline)
+                : elevators.nextCommands());
+    }
+
+    @Override
+    public void call(int floor, String to) {
+        elevators.call(floor, to);
+        mirror(ElevatorEvent.call(floor, to));
+    }
+
+    @Override
+    public void go(int cabin, int floorToGo) {
+        elevators.go(cabin, floorToGo);
+        mirror(ElevatorEvent.go(cabin, floorToGo));
+    }
+
+    @Override
+    public void userHasEntered(int cabin) {
+        elevators.userHasEntered(cabin);
+        mirror(ElevatorEvent.userHasEntered(cabin));
+    }
+
+    @Override
+    public void userHasExited(int cabin) {
+        elevators.userHasExited(cabin);
+        mirror(ElevatorEvent.userHasExited(cabin));
+    }
+
+    @Override
+    public void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+        elevators.reset(cause, lowerFloor, higherFloor, cabinSize, cabinCount);
+        mirror(ElevatorEvent.reset(cause, lowerFloor, higherFloor, cabinSize, cabinCount));
+    }
+
+    /**
+     * Not an input, nothing is mirrored.
+     */
+    @Override
+    public void prepareNextCommands() {
+        if (elevators instanceof SpeculativeElevators) {
+            ((SpeculativeElevators) elevators).prepareNextCommands();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import java.util.Arrays;
+
+/**
+ * Sorted multiset of ticks with prefix sums,
+ * to get count and sum of ticks above a threshold in O(log n).
+ */
+class SortedTicks {
+
+    private int[] ticks = new int[4];
+    private long[] prefixSums = new long[5];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    int max() {
+        return ticks[size - 1];
+    }
+
+    int get(int index) {
+        return ticks[index];
+    }
+
+    void add(int tick) {
+        if (size == ticks.length) {
+            ticks = Arrays.copyOf(ticks, size * 2);
+            prefixSums = Arrays.copyOf(prefixSums, size * 2 + 1);
+        }
+        int position = firstIndexAbove(tick);
+        System.arraycopy(ticks, position, ticks, position + 1, size - position);
+        ticks[position] = tick;
+        size++;
+        updatePrefixSums(position);
+    }
+
+    void remove(int tick) {
+        int position = firstIndexAbove(tick) - 1;
+        if (position < 0 || ticks[position] != tick) {
+            return;
+        }
+        System.arraycopy(ticks, position + 1, ticks, position, size - position - 1);
+        size--;
+        updatePrefixSums(position);
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return index of the first tick strictly greater than threshold.
+     */
+    int firstIndexAbove(int threshold) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ticks[middle] <= threshold) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    int countAbove(int threshold) {
+        return size - firstIndexAbove(threshold);
+    }
+
+    long sumAbove(int threshold) {
+        return prefixSums[size] - prefixSums[firstIndexAbove(threshold)];
+    }
+
+    private void updatePrefixSums(int from) {
+        for (int index = from; index < size; index++) {
+            prefixSums[index + 1] = prefixSums[index] + ticks[index];
+        }
+    }
+}
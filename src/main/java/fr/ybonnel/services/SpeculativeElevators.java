@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+/**
+ * Elevators able to prepare next commands before they're asked.
+ */
+public interface SpeculativeElevators extends Elevators {
+
+    /**
+     * Do the part of next commands computation which doesn't advance the tick.
+     * Any event received after undoes the preparation, so events and next commands find the state they would have found
+     * without it, and it can be called any number of times between two ticks.
+     */
+    void prepareNextCommands();
+}
@@ -16,6 +16,8 @@
  */
 package fr.ybonnel.services.model;
 
+import java.nio.charset.StandardCharsets;
+
 public enum Command {
     UP,
     DOWN,
@@ -23,5 +25,11 @@ public enum Command {
     OPEN_UP,
     CLOSE,
     NOTHING,
-    FORCERESET
+    FORCERESET;
+
+    private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+
+    byte[] bytes() {
+        return bytes;
+    }
 }
@@ -16,6 +16,8 @@
  */
 package fr.ybonnel.services.model;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 public class Commands {
@@ -41,4 +43,30 @@ public class Commands {
         }
         return builder.toString();
     }
+
+    /**
+     * @return length in bytes of the response written by {@link #writeTo(OutputStream)}.
+     */
+    public int byteLength() {
+        int length = 0;
+        for (int index = 0; index < commands.size(); index++) {
+            if (index > 0) {
+                length++;
+            }
+            length += commands.get(index).bytes().length;
+        }
+        return length;
+    }
+
+    /**
+     * Write commands separated by newlines, same content as toString without building it.
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        for (int index = 0; index < commands.size(); index++) {
+            if (index > 0) {
+                outputStream.write('\n');
+            }
+            outputStream.write(commands.get(index).bytes());
+        }
+    }
 }
@@ -22,6 +22,8 @@ import java.util.List;
 
 public class User {
 
+    public static final int BASE_SCORE = 20;
+
     private final int startFloor;
 
     private final int startTick;
@@ -44,7 +46,7 @@ public class User {
     }
 
     public int esperateScore(int currentTick, int currentFloor) {
-        int baseScore = 20;
+        int baseScore = BASE_SCORE;
 
         int neededTicks = destinationFloor == null ? 0
                 : Math.abs(destinationFloor - startFloor) + 2;
@@ -68,6 +70,16 @@ public class User {
         return score;
     }
 
+    /**
+     * Only for a user with destination : his score at currentTick and currentFloor
+     * is max(0, scoreLimitTick - currentTick - |currentFloor - destinationFloor|).
+     */
+    public int getScoreLimitTick() {
+        int neededTicks = Math.abs(destinationFloor - startFloor) + 2;
+        int waitTime = enterElevatorTick - startTick;
+        return BASE_SCORE + neededTicks - (waitTime/2) + enterElevatorTick;
+    }
+
     public Direction getDirectionCalled() {
         return directionCalled;
     }
@@ -97,4 +109,8 @@ public class User {
     public int getStartFloor() {
         return startFloor;
     }
+
+    public int getStartTick() {
+        return startTick;
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services.model;
+
+import java.util.Arrays;
+
+/**
+ * Users stored in parallel arrays and referenced by an int id,
+ * so dispatchers move ids instead of {@link User} objects.
+ * Ids of released users are reused by next created users.
+ * Scores are computed as in {@link User}.
+ */
+public class UserTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private int[] startFloors = new int[INITIAL_CAPACITY];
+    private int[] startTicks = new int[INITIAL_CAPACITY];
+    private byte[] directionsCalled = new byte[INITIAL_CAPACITY];
+    private boolean[] hasDestination = new boolean[INITIAL_CAPACITY];
+    private int[] destinationFloors = new int[INITIAL_CAPACITY];
+    private int[] enterElevatorTicks = new int[INITIAL_CAPACITY];
+
+    private int[] freeIds = new int[INITIAL_CAPACITY];
+    private int nbFreeIds;
+    private int nextId;
+    private int size;
+
+    /**
+     * @return id of the new user.
+     */
+    public int create(int startFloor, int startTick, Direction directionCalled) {
+        int id;
+        if (nbFreeIds > 0) {
+            id = freeIds[--nbFreeIds];
+        } else {
+            if (nextId == startFloors.length) {
+                grow();
+            }
+            id = nextId++;
+        }
+        startFloors[id] = startFloor;
+        startTicks[id] = startTick;
+        directionsCalled[id] = (byte) directionCalled.ordinal();
+        hasDestination[id] = false;
+        size++;
+        return id;
+    }
+
+    /**
+     * @return id of a new user with same state than the user of the other table.
+     */
+    public int copyOf(UserTable table, int id) {
+        int copy = create(table.startFloors[id], table.startTicks[id], table.getDirectionCalled(id));
+        if (table.hasDestination[id]) {
+            go(copy, table.destinationFloors[id], table.enterElevatorTicks[id]);
+        }
+        return copy;
+    }
+
+    private void grow() {
+        int capacity = startFloors.length * 2;
+        startFloors = Arrays.copyOf(startFloors, capacity);
+        startTicks = Arrays.copyOf(startTicks, capacity);
+        directionsCalled = Arrays.copyOf(directionsCalled, capacity);
+        hasDestination = Arrays.copyOf(hasDestination, capacity);
+        destinationFloors = Arrays.copyOf(destinationFloors, capacity);
+        enterElevatorTicks = Arrays.copyOf(enterElevatorTicks, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+    }
+
+    /**
+     * The id can be reused by a next user, it must not be referenced anymore.
+     */
+    public void release(int id) {
+        freeIds[nbFreeIds++] = id;
+        size--;
+    }
+
+    /**
+     * Release all users.
+     */
+    public void clear() {
+        nbFreeIds = 0;
+        nextId = 0;
+        size = 0;
+    }
+
+    /**
+     * @return number of users not released.
+     */
+    public int size() {
+        return size;
+    }
+
+    public void go(int id, int destinationFloor, int enterElevatorTick) {
+        hasDestination[id] = true;
+        destinationFloors[id] = destinationFloor;
+        enterElevatorTicks[id] = enterElevatorTick;
+    }
+
+    public int getStartFloor(int id) {
+        return startFloors[id];
+    }
+
+    public int getStartTick(int id) {
+        return startTicks[id];
+    }
+
+    public Direction getDirectionCalled(int id) {
+        return DIRECTIONS[directionsCalled[id]];
+    }
+
+    public boolean hasDestination(int id) {
+        return hasDestination[id];
+    }
+
+    public int getDestinationFloor(int id) {
+        return destinationFloors[id];
+    }
+
+    public int esperateScore(int id, int currentTick, int currentFloor) {
+        int startFloor = startFloors[id];
+        int startTick = startTicks[id];
+        int score;
+        if (hasDestination[id]) {
+            int destinationFloor = destinationFloors[id];
+            int enterElevatorTick = enterElevatorTicks[id];
+            score = User.BASE_SCORE + Math.abs(destinationFloor - startFloor) + 2
+                    - (enterElevatorTick - startTick) / 2
+                    - (currentTick - enterElevatorTick)
+                    - Math.abs(currentFloor - destinationFloor);
+        } else {
+            score = User.BASE_SCORE - (currentTick - startTick) / 2 - Math.abs(currentFloor - startFloor);
+        }
+        return Math.max(0, score);
+    }
+
+    /**
+     * @see User#getScoreLimitTick()
+     */
+    public int getScoreLimitTick(int id) {
+        int neededTicks = Math.abs(destinationFloors[id] - startFloors[id]) + 2;
+        int waitTime = enterElevatorTicks[id] - startTicks[id];
+        return User.BASE_SCORE + neededTicks - (waitTime/2) + enterElevatorTicks[id];
+    }
+
+    public String state(int id, int currentTick, int floor) {
+        StringBuilder builder = new StringBuilder("User(");
+        builder.append(esperateScore(id, currentTick, floor));
+        if (!hasDestination[id]) {
+            builder.append(',').append(getDirectionCalled(id));
+        }
+        builder.append(')');
+        return builder.toString();
+    }
+}
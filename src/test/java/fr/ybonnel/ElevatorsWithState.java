@@ -26,17 +26,19 @@ import fr.ybonnel.services.model.State;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 public class ElevatorsWithState {
 
     private static final Logger logger = LoggerFactory.getLogger(ElevatorsWithState.class);
 
-    private List<fr.ybonnel.User> users = new ArrayList<>();
+    // Users waiting by (floor, direction), in order of arrival.
+    private final List<ArrayDeque<User>> waitingUsers = new ArrayList<>();
+    // Users in cabins by (cabin, destination floor).
+    private final List<List<User>> travellingUsers = new ArrayList<>();
+    private final int[] nbUsersInElevators;
 
     private int score = 0;
     private int nextReset = 0;
@@ -54,6 +56,14 @@ public class ElevatorsWithState {
         this.lowerFloor = lowerFloor;
         this.higherFloor = higherFloor;
         this.nbElevators = nbElevators;
+        int nbFloors = higherFloor - lowerFloor + 1;
+        for (int index = 0; index < nbFloors * Direction.values().length; index++) {
+            waitingUsers.add(new ArrayDeque<User>());
+        }
+        for (int index = 0; index < nbElevators * nbFloors; index++) {
+            travellingUsers.add(new ArrayList<User>());
+        }
+        nbUsersInElevators = new int[nbElevators];
         for (int index = 0; index < nbElevators; index++) {
             currentStates.add(State.CLOSE);
             currentFloors.add(0);
@@ -62,33 +72,32 @@ public class ElevatorsWithState {
     }
 
     public void addUser(int tickEnterBuilding, int startFloor, int destinationFloor) {
-        users.add(new User(tickEnterBuilding, startFloor, destinationFloor));
+        User user = new User(tickEnterBuilding, startFloor, destinationFloor);
+        waitingUsers(startFloor, user.directionWished()).add(user);
         elevators.call(startFloor, destinationFloor > startFloor ? "UP" : "DOWN");
     }
 
-    private void logState() {
-        Map<Integer, Integer> nbUsersByFloor = new HashMap<>();
-        List<Integer> nbUsersByElevator = new ArrayList<>(nbElevators);
-
-        for (int elevator=0; elevator < nbElevators; elevator++) {
-            nbUsersByElevator.add(0);
-        }
+    private ArrayDeque<User> waitingUsers(int floor, Direction direction) {
+        return waitingUsers.get((floor - lowerFloor) * Direction.values().length + direction.ordinal());
+    }
 
-        for (int floor = lowerFloor; floor <= higherFloor; floor++) {
-            nbUsersByFloor.put(floor, 0);
-        }
+    private List<User> travellingUsers(int indexElevator, int destinationFloor) {
+        return travellingUsers.get(indexElevator * (higherFloor - lowerFloor + 1) + destinationFloor - lowerFloor);
+    }
 
-        for (User user : users) {
-            if (user.isInOneElevator()) {
-                nbUsersByElevator.set(user.getIndexElevator(), nbUsersByElevator.get(user.getIndexElevator()) + 1);
-            } else {
-                nbUsersByFloor.put(user.getStartFloor(), nbUsersByFloor.get(user.getStartFloor()) + 1);
-            }
+    private void logState() {
+        List<Integer> nbUsersByElevator = new ArrayList<>(nbElevators);
+        for (int elevator = 0; elevator < nbElevators; elevator++) {
+            nbUsersByElevator.add(nbUsersInElevators[elevator]);
         }
 
         List<Integer> nbUsersForEachFloor = new ArrayList<>();
         for (int floor = lowerFloor; floor <= higherFloor; floor++) {
-            nbUsersForEachFloor.add(nbUsersByFloor.get(floor));
+            int nbUsers = 0;
+            for (Direction direction : Direction.values()) {
+                nbUsers += waitingUsers(floor, direction).size();
+            }
+            nbUsersForEachFloor.add(nbUsers);
         }
 
         logger.info("Elevators : {}, Building {}", nbUsersByElevator, nbUsersForEachFloor);
@@ -142,44 +151,30 @@ public class ElevatorsWithState {
             }
 
             if (currentStates.get(indexElevator) == State.OPEN) {
-                for (Iterator<User> iterator = users.iterator(); iterator.hasNext(); ) {
-                    User user = iterator.next();
-                    if (user.isInElevator(indexElevator)) {
-                        if (currentFloors.get(indexElevator) == user.getDestinationFloor()) {
-                            int scoreOfUser = user.exitElevatorAndComputeScore(tick);
-                            score += scoreOfUser;
-                            elevators.userHasExited(indexElevator);
-                            iterator.remove();
-                        }
-                    }
+                int currentFloor = currentFloors.get(indexElevator);
+                List<User> usersToExit = travellingUsers(indexElevator, currentFloor);
+                for (User user : usersToExit) {
+                    int scoreOfUser = user.exitElevatorAndComputeScore(tick);
+                    score += scoreOfUser;
+                    elevators.userHasExited(indexElevator);
                 }
-                for (User user : users) {
-                    if (currentFloors.get(indexElevator) == user.getStartFloor()
-                            && nbUserInElevator(indexElevator) < cabinSize
-                            && !user.isInOneElevator()
-                            && user.directionWished() == directionOfOpen) {
-                        user.enterElevator(tick, indexElevator);
-                        elevators.userHasEntered(indexElevator);
-                        elevators.go(indexElevator, user.getDestinationFloor());
-                    }
+                nbUsersInElevators[indexElevator] -= usersToExit.size();
+                usersToExit.clear();
+
+                ArrayDeque<User> usersToEnter = waitingUsers(currentFloor, directionOfOpen);
+                while (!usersToEnter.isEmpty() && nbUsersInElevators[indexElevator] < cabinSize) {
+                    User user = usersToEnter.poll();
+                    user.enterElevator(tick, indexElevator);
+                    travellingUsers(indexElevator, user.getDestinationFloor()).add(user);
+                    nbUsersInElevators[indexElevator]++;
+                    elevators.userHasEntered(indexElevator);
+                    elevators.go(indexElevator, user.getDestinationFloor());
                 }
             }
             indexElevator++;
         }
     }
 
-    private int nbUserInElevator(int indexElevator) {
-        int nbUsersInElevator = 0;
-
-        for (User user : users) {
-            if (user.isInElevator(indexElevator)) {
-                nbUsersInElevator++;
-            }
-        }
-        return nbUsersInElevator;
-    }
-
-
     private void reset(String cause) {
         currentFloors.clear();
         currentStates.clear();
@@ -189,7 +184,15 @@ public class ElevatorsWithState {
         }
         score = score - nextReset;
         nextReset += 2;
-        users.clear();
+        for (ArrayDeque<User> users : waitingUsers) {
+            users.clear();
+        }
+        for (List<User> users : travellingUsers) {
+            users.clear();
+        }
+        for (int index = 0; index < nbElevators; index++) {
+            nbUsersInElevators[index] = 0;
+        }
         elevators.reset(cause, lowerFloor, higherFloor, cabinSize, nbElevators);
     }
 
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import fr.ybonnel.services.Elevators;
+import fr.ybonnel.services.EventJournal;
+import fr.ybonnel.services.JournaledElevators;
+import fr.ybonnel.services.model.Command;
+import fr.ybonnel.services.model.Commands;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay recorded traffic in an algorithm, without http, as fast as possible.
+ * <ul>
+ *     <li>journal &lt;directory&gt; [algorithm] : replay an event journal and compare commands with recorded ones.</li>
+ *     <li>trace &lt;repartition.json&gt; [algorithm] : simulate the building with arrivals of the trace, and compute the score.
+ *     With -Dreplay.record=&lt;directory&gt; the run is recorded in a journal, to compare other algorithms with it.</li>
+ * </ul>
+ * Algorithm is byUser, byUser2 (default) or byUser2Old.
+ * -Dreplay.iterations=N replays N times with new elevators (to warm up the JIT), -Dreplay.seed fixes arrivals of a trace.
+ */
+public class Replay {
+
+    private static final int LOWER_FLOOR = -5;
+    private static final int HIGHER_FLOOR = 48;
+    private static final int CABIN_SIZE = 30;
+    private static final int CABIN_COUNT = 8;
+
+    private static final int MAX_MISMATCHES_LOGGED = 10;
+
+    /**
+     * Start of a run of the server, elevators are created again.
+     */
+    private static final int TYPE_START = -1;
+
+    private static final String[] DIRECTIONS = {"UP", "DOWN"};
+    private static final Command[] COMMANDS = Command.values();
+
+    /**
+     * Elevators measuring time spent in events and in nextCommands.
+     */
+    private static class TimedElevators implements Elevators {
+
+        private final Elevators elevators;
+        private long eventsNanos;
+        private long nextCommandsNanos;
+        private int nbEvents;
+        private int nbTicks;
+
+        private TimedElevators(Elevators elevators) {
+            this.elevators = elevators;
+        }
+
+        @Override
+        public void logState() {
+            elevators.logState();
+        }
+
+        @Override
+        public Commands nextCommands() {
+            long startTime = System.nanoTime();
+            Commands commands = elevators.nextCommands();
+            nextCommandsNanos += System.nanoTime() - startTime;
+            nbTicks++;
+            return commands;
+        }
+
+        @Override
+        public void call(int floor, String to) {
+            long startTime = System.nanoTime();
+            elevators.call(floor, to);
+            eventsNanos += System.nanoTime() - startTime;
+            nbEvents++;
+        }
+
+        @Override
+        public void go(int cabin, int floorToGo) {
+            long startTime = System.nanoTime();
+            elevators.go(cabin, floorToGo);
+            eventsNanos += System.nanoTime() - startTime;
+            nbEvents++;
+        }
+
+        @Override
+        public void userHasEntered(int cabin) {
+            long startTime = System.nanoTime();
+            elevators.userHasEntered(cabin);
+            eventsNanos += System.nanoTime() - startTime;
+            nbEvents++;
+        }
+
+        @Override
+        public void userHasExited(int cabin) {
+            long startTime = System.nanoTime();
+            elevators.userHasExited(cabin);
+            eventsNanos += System.nanoTime() - startTime;
+            nbEvents++;
+        }
+
+        @Override
+        public void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+            long startTime = System.nanoTime();
+            elevators.reset(cause, lowerFloor, higherFloor, cabinSize, cabinCount);
+            eventsNanos += System.nanoTime() - startTime;
+            nbEvents++;
+        }
+    }
+
+    /**
+     * Records of a journal, decoded in arrays before the replay.
+     * Each record is its type followed by its ints : reset (lower, higher, cabinSize, cabinCount, index of cause),
+     * call (floor, ordinal of direction), go (cabin, floor), userHasEntered and userHasExited (cabin),
+     * nextCommands (number of commands, offset of recorded ordinals in commands), start (nothing).
+     */
+    private static class Journal {
+        private int[] records = new int[1024];
+        private int size;
+        private byte[] commands = new byte[1024];
+        private int commandsSize;
+        private final List<String> causes = new ArrayList<>();
+        private int nbRecords;
+
+        private void add(int value) {
+            if (size == records.length) {
+                records = Arrays.copyOf(records, size * 2);
+            }
+            records[size++] = value;
+        }
+
+        private void addCommand(byte ordinal) {
+            if (commandsSize == commands.length) {
+                commands = Arrays.copyOf(commands, commandsSize * 2);
+            }
+            commands[commandsSize++] = ordinal;
+        }
+
+        private void load(File directory) throws IOException {
+            for (File segment : EventJournal.segments(directory)) {
+                try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+                    MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                    load(buffer);
+                }
+            }
+        }
+
+        private void load(ByteBuffer buffer) {
+            for (int position = 0; position + EventJournal.RECORD_SIZE <= buffer.limit(); position += EventJournal.RECORD_SIZE) {
+                int type = buffer.getInt(position + EventJournal.TYPE_OFFSET);
+                if (type == EventJournal.TYPE_END) {
+                    return;
+                }
+                if (position == 0 && buffer.getInt(position + EventJournal.TICK_OFFSET) == 0) {
+                    // A segment starting at tick 0 is written by a new start of the server.
+                    add(TYPE_START);
+                }
+                int offset = position + EventJournal.PAYLOAD_OFFSET;
+                add(type);
+                switch (type) {
+                    case EventJournal.TYPE_RESET:
+                        for (int index = 0; index < 4; index++) {
+                            add(buffer.getInt(offset + 4 * index));
+                        }
+                        byte[] cause = new byte[buffer.getShort(offset + 16)];
+                        for (int index = 0; index < cause.length; index++) {
+                            cause[index] = buffer.get(offset + 18 + index);
+                        }
+                        add(causes.size());
+                        causes.add(new String(cause, StandardCharsets.UTF_8));
+                        break;
+                    case EventJournal.TYPE_CALL:
+                    case EventJournal.TYPE_GO:
+                        add(buffer.getInt(offset));
+                        add(buffer.getInt(offset + 4));
+                        break;
+                    case EventJournal.TYPE_USER_HAS_ENTERED:
+                    case EventJournal.TYPE_USER_HAS_EXITED:
+                        add(buffer.getInt(offset));
+                        break;
+                    case EventJournal.TYPE_NEXT_COMMANDS:
+                        int nbCommands = buffer.getInt(offset);
+                        add(nbCommands);
+                        add(commandsSize);
+                        for (int index = 0; index < Math.min(nbCommands, EventJournal.MAX_COMMANDS); index++) {
+                            addCommand(buffer.get(offset + 4 + index));
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown record type " + type + " at " + position);
+                }
+                nbRecords++;
+            }
+        }
+    }
+
+    private final String algorithm;
+    private final int iterations;
+
+    public Replay(String algorithm, int iterations) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+    }
+
+    private TimedElevators newElevators() {
+        return new TimedElevators(Main.newElevators(algorithm));
+    }
+
+    /**
+     * Replay a journal, commands of each tick are compared with recorded ones.
+     * @return number of ticks with different commands in the last iteration.
+     */
+    public int replayJournal(File directory) throws IOException {
+        long startTime = System.nanoTime();
+        Journal journal = new Journal();
+        journal.load(directory);
+        System.out.println(String.format(Locale.ENGLISH, "Journal %s : %d records loaded in %.1f ms",
+                directory, journal.nbRecords, millis(System.nanoTime() - startTime)));
+
+        int mismatches = 0;
+        for (int iteration = 1; iteration <= iterations; iteration++) {
+            mismatches = replayJournal(journal, iteration);
+        }
+        return mismatches;
+    }
+
+    private int replayJournal(Journal journal, int iteration) {
+        List<TimedElevators> runs = new ArrayList<>();
+        TimedElevators elevators = newElevators();
+        runs.add(elevators);
+        int[] records = journal.records;
+        int tick = 0;
+        int mismatches = 0;
+        int firstMismatch = -1;
+
+        long startTime = System.nanoTime();
+        int index = 0;
+        while (index < journal.size) {
+            switch (records[index]) {
+                case TYPE_START:
+                    if (elevators.nbEvents > 0 || elevators.nbTicks > 0) {
+                        elevators = newElevators();
+                        runs.add(elevators);
+                    }
+                    index += 1;
+                    break;
+                case EventJournal.TYPE_RESET:
+                    elevators.reset(journal.causes.get(records[index + 5]),
+                            records[index + 1], records[index + 2], records[index + 3], records[index + 4]);
+                    index += 6;
+                    break;
+                case EventJournal.TYPE_CALL:
+                    int direction = records[index + 2];
+                    elevators.call(records[index + 1], direction >= 0 && direction < DIRECTIONS.length ? DIRECTIONS[direction] : null);
+                    index += 3;
+                    break;
+                case EventJournal.TYPE_GO:
+                    elevators.go(records[index + 1], records[index + 2]);
+                    index += 3;
+                    break;
+                case EventJournal.TYPE_USER_HAS_ENTERED:
+                    elevators.userHasEntered(records[index + 1]);
+                    index += 2;
+                    break;
+                case EventJournal.TYPE_USER_HAS_EXITED:
+                    elevators.userHasExited(records[index + 1]);
+                    index += 2;
+                    break;
+                case EventJournal.TYPE_NEXT_COMMANDS:
+                    List<Command> commands = elevators.nextCommands().getCommands();
+                    if (!sameCommands(commands, records[index + 1], journal.commands, records[index + 2])) {
+                        if (mismatches < MAX_MISMATCHES_LOGGED) {
+                            System.out.println("  tick " + tick + " : recorded " + recordedCommands(records[index + 1], journal.commands, records[index + 2])
+                                    + ", replayed " + commands);
+                        }
+                        if (firstMismatch < 0) {
+                            firstMismatch = tick;
+                        }
+                        mismatches++;
+                    }
+                    tick++;
+                    index += 3;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record type " + records[index]);
+            }
+        }
+        long totalNanos = System.nanoTime() - startTime;
+
+        report("Replay " + iteration + " of journal with " + algorithm, runs, tick, totalNanos, "decode and compare");
+        System.out.println("  commands : " + (tick - mismatches) + " ticks identical, " + mismatches + " different"
+                + (firstMismatch < 0 ? "" : ", first at tick " + firstMismatch));
+        return mismatches;
+    }
+
+    /**
+     * Only the first {@link EventJournal#MAX_COMMANDS} commands are recorded, the others are not compared.
+     */
+    private static boolean sameCommands(List<Command> commands, int nbRecorded, byte[] recorded, int offset) {
+        if (commands.size() != nbRecorded) {
+            return false;
+        }
+        for (int index = 0; index < Math.min(nbRecorded, EventJournal.MAX_COMMANDS); index++) {
+            if (commands.get(index).ordinal() != recorded[offset + index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Command> recordedCommands(int nbRecorded, byte[] recorded, int offset) {
+        List<Command> commands = new ArrayList<>();
+        for (int index = 0; index < Math.min(nbRecorded, EventJournal.MAX_COMMANDS); index++) {
+            commands.add(COMMANDS[recorded[offset + index]]);
+        }
+        return commands;
+    }
+
+    /**
+     * Simulate the building with arrivals of the trace (number of people by tick), the whole trace is played once.
+     * @param record directory of journal to record the run, null for no record.
+     * @return score of the last iteration.
+     */
+    public int replayTrace(List<Integer> arrivals, long seed, File record) throws IOException {
+        long startTime = System.nanoTime();
+        Random random = new Random(seed);
+        int[] nbArrivalsOfTicks = new int[arrivals.size()];
+        int[] startFloors = new int[1024];
+        int[] destinationFloors = new int[1024];
+        int nbArrivals = 0;
+        for (int tick = 0; tick < arrivals.size(); tick++) {
+            nbArrivalsOfTicks[tick] = arrivals.get(tick);
+            for (int i = 0; i < arrivals.get(tick); i++) {
+                if (nbArrivals == startFloors.length) {
+                    startFloors = Arrays.copyOf(startFloors, nbArrivals * 2);
+                    destinationFloors = Arrays.copyOf(destinationFloors, nbArrivals * 2);
+                }
+                int startFloor = random.nextInt(HIGHER_FLOOR - LOWER_FLOOR + 1) + LOWER_FLOOR;
+                int destinationFloor;
+                do {
+                    destinationFloor = random.nextInt(HIGHER_FLOOR - LOWER_FLOOR + 1) + LOWER_FLOOR;
+                } while (destinationFloor == startFloor);
+                startFloors[nbArrivals] = startFloor;
+                destinationFloors[nbArrivals] = destinationFloor;
+                nbArrivals++;
+            }
+        }
+        System.out.println(String.format(Locale.ENGLISH, "Trace : %d ticks, %d arrivals generated in %.1f ms (seed %d)",
+                arrivals.size(), nbArrivals, millis(System.nanoTime() - startTime), seed));
+
+        int score = 0;
+        for (int iteration = 1; iteration <= iterations; iteration++) {
+            TimedElevators elevators = newElevators();
+            EventJournal journal = record != null && iteration == iterations ? new EventJournal(record) : null;
+            try {
+                startTime = System.nanoTime();
+                ElevatorsWithState building = new ElevatorsWithState(
+                        journal == null ? elevators : new JournaledElevators(elevators, journal),
+                        LOWER_FLOOR, HIGHER_FLOOR, CABIN_SIZE, CABIN_COUNT);
+                int arrival = 0;
+                for (int tick = 0; tick < nbArrivalsOfTicks.length; tick++) {
+                    building.oneTick(tick);
+                    for (int i = 0; i < nbArrivalsOfTicks[tick]; i++) {
+                        building.addUser(tick, startFloors[arrival], destinationFloors[arrival]);
+                        arrival++;
+                    }
+                }
+                long totalNanos = System.nanoTime() - startTime;
+                score = building.getScore();
+                report("Replay " + iteration + " of trace with " + algorithm, Arrays.asList(elevators),
+                        nbArrivalsOfTicks.length, totalNanos, journal == null ? "building" : "building and journal");
+                System.out.println("  score : " + score);
+            } finally {
+                if (journal != null) {
+                    journal.close();
+                }
+            }
+        }
+        return score;
+    }
+
+    private static void report(String title, List<TimedElevators> runs, int nbTicks, long totalNanos, String otherPhase) {
+        long eventsNanos = 0;
+        long nextCommandsNanos = 0;
+        int nbEvents = 0;
+        for (TimedElevators run : runs) {
+            eventsNanos += run.eventsNanos;
+            nextCommandsNanos += run.nextCommandsNanos;
+            nbEvents += run.nbEvents;
+        }
+        System.out.println(String.format(Locale.ENGLISH, "%s : %d ticks in %.1f ms, %.0f ticks/s",
+                title, nbTicks, millis(totalNanos), nbTicks / (totalNanos / (double) TimeUnit.SECONDS.toNanos(1))));
+        System.out.println(String.format(Locale.ENGLISH, "  events : %d in %.1f ms (%.0f ns each)",
+                nbEvents, millis(eventsNanos), nbEvents == 0 ? 0.0 : eventsNanos / (double) nbEvents));
+        System.out.println(String.format(Locale.ENGLISH, "  nextCommands : %d in %.1f ms (%.0f ns each)",
+                nbTicks, millis(nextCommandsNanos), nbTicks == 0 ? 0.0 : nextCommandsNanos / (double) nbTicks));
+        System.out.println(String.format(Locale.ENGLISH, "  %s : %.1f ms",
+                otherPhase, millis(totalNanos - eventsNanos - nextCommandsNanos)));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !"journal".equals(args[0]) && !"trace".equals(args[0])) {
+            System.err.println("Usage : Replay journal <directory> [algorithm] | Replay trace <repartition.json> [algorithm]");
+            System.exit(2);
+        }
+        Replay replay = new Replay(args.length > 2 ? args[2] : "byUser2", Integer.getInteger("replay.iterations", 1));
+
+        if ("journal".equals(args[0])) {
+            int mismatches = replay.replayJournal(new File(args[1]));
+            System.exit(mismatches == 0 ? 0 : 1);
+        } else {
+            List<Integer> arrivals;
+            try (InputStreamReader reader = new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8)) {
+                arrivals = new GsonBuilder().create().fromJson(reader, new TypeToken<List<Integer>>(){}.getType());
+            }
+            String record = System.getProperty("replay.record");
+            replay.replayTrace(arrivals, Long.getLong("replay.seed", 0L), record == null ? null : new File(record));
+        }
+    }
+}
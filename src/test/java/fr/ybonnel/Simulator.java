@@ -28,9 +28,11 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -41,7 +43,8 @@ public class Simulator {
     private static final int HIGHER_FLOOR = 48;
     private static final int CABIN_SIZE = 30;
     private static final int CABIN_COUNT = 8;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(8);
+    private static final int TICKS_BY_BATCH = 100;
+    private final ExecutorService executorService;
 
     private int currentTick = 0;
 
@@ -56,32 +59,70 @@ public class Simulator {
         for (Elevators elevator : elevators) {
             elevatorsWithStates.add(new ElevatorsWithState(elevator, LOWER_FLOOR, HIGHER_FLOOR, CABIN_SIZE, CABIN_COUNT));
         }
+        executorService = Executors.newFixedThreadPool(elevators.length);
     }
 
-    private void runOneTick() throws InterruptedException {
+    private static class Arrival {
+        private final int tick;
+        private final int startFloor;
+        private final int destinationFloor;
 
-        for (final ElevatorsWithState elevatorsWithState : elevatorsWithStates) {
-          elevatorsWithState.oneTick(currentTick);
+        private Arrival(int tick, int startFloor, int destinationFloor) {
+            this.tick = tick;
+            this.startFloor = startFloor;
+            this.destinationFloor = destinationFloor;
         }
+    }
 
-        for (int i = 0; i < arrivals.get(currentTick % arrivals.size()); i++) {
-            int startFloor = random.nextInt(HIGHER_FLOOR - LOWER_FLOOR + 1) + LOWER_FLOOR;
-            int destinationFloor;
-            do {
-                destinationFloor = random.nextInt(HIGHER_FLOOR - LOWER_FLOOR + 1) + LOWER_FLOOR;
-            } while (destinationFloor == startFloor);
-
-            for (ElevatorsWithState elevatorsWithState : elevatorsWithStates) {
-                elevatorsWithState.addUser(currentTick, startFloor, destinationFloor);
+    /**
+     * Arrivals are generated once, then each algorithm runs the ticks on its own thread.
+     * All algorithms wait for each other at the end of the batch.
+     */
+    private void runTicks(int nbTicks) throws InterruptedException, ExecutionException {
+        final int firstTick = currentTick;
+        final int endTick = currentTick + nbTicks;
+        final List<Arrival> arrivalsOfBatch = new ArrayList<>();
+        for (int tick = firstTick; tick < endTick; tick++) {
+            for (int i = 0; i < arrivals.get(tick % arrivals.size()); i++) {
+                int startFloor = random.nextInt(HIGHER_FLOOR - LOWER_FLOOR + 1) + LOWER_FLOOR;
+                int destinationFloor;
+                do {
+                    destinationFloor = random.nextInt(HIGHER_FLOOR - LOWER_FLOOR + 1) + LOWER_FLOOR;
+                } while (destinationFloor == startFloor);
+                arrivalsOfBatch.add(new Arrival(tick, startFloor, destinationFloor));
             }
         }
 
-        currentTick++;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final ElevatorsWithState elevatorsWithState : elevatorsWithStates) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Iterator<Arrival> itArrivals = arrivalsOfBatch.iterator();
+                    Arrival arrival = itArrivals.hasNext() ? itArrivals.next() : null;
+                    for (int tick = firstTick; tick < endTick; tick++) {
+                        elevatorsWithState.oneTick(tick);
+                        while (arrival != null && arrival.tick == tick) {
+                            elevatorsWithState.addUser(tick, arrival.startFloor, arrival.destinationFloor);
+                            arrival = itArrivals.hasNext() ? itArrivals.next() : null;
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        for (Future<Void> result : executorService.invokeAll(tasks)) {
+            // Propagate errors of algorithms.
+            result.get();
+        }
+
+        currentTick = endTick;
     }
 
 
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
         List<Integer> arrivals = new GsonBuilder().create().fromJson(
                 new InputStreamReader(Simulator.class.getResourceAsStream("/repartition.json")),
                 new TypeToken<List<Integer>>(){}.getType());
@@ -97,8 +138,8 @@ public class Simulator {
 
 
 
-        for (int i=0; i<arrivals.size(); i++) {
-            simulator.runOneTick();
+        while (simulator.currentTick < arrivals.size()) {
+            simulator.runTicks(Math.min(TICKS_BY_BATCH, arrivals.size() - simulator.currentTick));
             for (ElevatorsWithState elevatorsWithState : simulator.elevatorsWithStates) {
                 System.err.println("Scores of " + elevatorsWithState.getName() + " : " + elevatorsWithState.getScore());
             }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.ElevatorsWithState;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArrivalForecastTest {
+
+    private static final int PERIOD = 400;
+    private static final int RUSH_START = 350;
+    private static final int RUSH_FLOOR = 15;
+
+    /**
+     * Each cycle, users go up from the ground floor, then a rush goes down from RUSH_FLOOR.
+     * Calls of the rush are out of the window of recent calls before the next one.
+     * @return best floors to wait of cabins after the tick.
+     */
+    private static List<Integer> bestFloorsToWaitAt(ByUser2Elevators elevators, int lastTick) {
+        ElevatorsWithState building = new ElevatorsWithState(elevators, 0, 19, 30, 2);
+        for (int tick = 0; tick <= lastTick; tick++) {
+            building.oneTick(tick);
+            if (tick % PERIOD < RUSH_START) {
+                building.addUser(tick, 0, 1 + tick % 5);
+                building.addUser(tick, 0, 10);
+            } else {
+                for (int index = 0; index < 3; index++) {
+                    building.addUser(tick, RUSH_FLOOR, 0);
+                }
+            }
+        }
+        List<Integer> bestFloorsToWait = new ArrayList<>();
+        for (ByUser2Elevator elevator : elevators.getElevators()) {
+            bestFloorsToWait.add(elevator.getBestFloorToWait());
+        }
+        return bestFloorsToWait;
+    }
+
+    private static ByUser2Elevators withForecast() {
+        ByUser2Elevators elevators = new ByUser2Elevators(false, false, 1000);
+        elevators.setArrivalForecast(new ArrivalForecast(50, 100, PERIOD));
+        return elevators;
+    }
+
+    private static ByUser2Elevators withoutForecast() {
+        return new ByUser2Elevators(false, false, 1000);
+    }
+
+    @Test
+    public void noForecastDuringFirstCycle() {
+        int tick = RUSH_START - 30;
+        assertEquals(bestFloorsToWaitAt(withoutForecast(), tick), bestFloorsToWaitAt(withForecast(), tick));
+    }
+
+    @Test
+    public void cabinWaitsAtFloorOfRushBeforeIt() {
+        int tick = PERIOD + RUSH_START - 30;
+        assertFalse(bestFloorsToWaitAt(withoutForecast(), tick).contains(RUSH_FLOOR));
+        assertTrue(bestFloorsToWaitAt(withForecast(), tick).contains(RUSH_FLOOR));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void periodMustBePositive() {
+        new ArrivalForecast(50, 100, 0);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import com.google.gson.Gson;
+import fr.ybonnel.simpleweb4j.exception.HttpErrorException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ElevatorEventBatchTest {
+
+    private static ElevatorEventBatch parse(String json) {
+        return new Gson().fromJson(json, ElevatorEventBatch.class);
+    }
+
+    private static final String RESET_OF_TWO_CABINS =
+            "{\"type\":\"RESET\",\"cause\":\"test\",\"lowerFloor\":0,\"higherFloor\":19,\"cabinSize\":30,\"cabinCount\":2}";
+
+    private static void assertRejected(String json) {
+        assertRejected(null, json, false);
+    }
+
+    /**
+     * @param before batch applied before the rejected one, null for none.
+     */
+    private static void assertRejected(String before, String json, boolean useEventLoop) {
+        RecordingElevators elevators = new RecordingElevators();
+        ElevatorService service = new ElevatorService("", elevators, useEventLoop, false);
+        List<String> appliedBefore = new ArrayList<>();
+        try {
+            if (before != null) {
+                service.getEventsRoute().handle(parse(before), null);
+                appliedBefore.addAll(elevators.applied);
+            }
+            service.getEventsRoute().handle(parse(json), null);
+            fail("Batch must be rejected : " + json);
+        } catch (HttpErrorException expected) {
+            // Nothing applied, even events before the malformed one.
+            assertEquals(appliedBefore, elevators.applied);
+        }
+    }
+
+    @Test
+    public void validBatchIsAppliedInOrder() throws HttpErrorException {
+        RecordingElevators elevators = new RecordingElevators();
+        ElevatorService service = new ElevatorService("", elevators);
+        service.getEventsRoute().handle(parse("{\"events\":["
+                + RESET_OF_TWO_CABINS + ","
+                + "{\"type\":\"CALL\",\"atFloor\":1,\"to\":\"UP\"},"
+                + "{\"type\":\"GO\",\"cabin\":1,\"floorToGo\":3}"
+                + "],\"nextCommands\":true}"), null);
+        assertEquals("[reset(test), call(1,UP), go(1,3), nextCommands]", elevators.applied.toString());
+    }
+
+    @Test
+    public void cabinIsChecked() {
+        String batch = "{\"events\":["
+                + "{\"type\":\"GO\",\"cabin\":0,\"floorToGo\":5},"
+                + "{\"type\":\"GO\",\"cabin\":99,\"floorToGo\":3}"
+                + "],\"nextCommands\":true}";
+        assertRejected("{\"events\":[" + RESET_OF_TWO_CABINS + "]}", batch, false);
+        assertRejected("{\"events\":[" + RESET_OF_TWO_CABINS + "]}", batch, true);
+    }
+
+    @Test
+    public void cabinIsCheckedAfterResetOfBatch() {
+        assertRejected("{\"events\":[" + RESET_OF_TWO_CABINS + "]}", "{\"events\":["
+                + "{\"type\":\"GO\",\"cabin\":1,\"floorToGo\":5},"
+                + "{\"type\":\"RESET\",\"cause\":\"test\",\"lowerFloor\":0,\"higherFloor\":19,\"cabinSize\":30,\"cabinCount\":1},"
+                + "{\"type\":\"USER_HAS_ENTERED\",\"cabin\":1}"
+                + "]}", false);
+    }
+
+    @Test
+    public void cabinIsCheckedBeforeFirstReset() {
+        assertRejected("{\"events\":[{\"type\":\"USER_HAS_EXITED\",\"cabin\":0}]}");
+    }
+
+    @Test
+    public void directionIsChecked() {
+        assertRejected("{\"events\":["
+                + "{\"type\":\"CALL\",\"atFloor\":1,\"to\":\"UP\"},"
+                + "{\"type\":\"CALL\",\"atFloor\":2,\"to\":\"SIDEWAYS\"},"
+                + "{\"type\":\"GO\",\"cabin\":0,\"floorToGo\":3}"
+                + "],\"nextCommands\":true}");
+    }
+
+    @Test
+    public void typeIsChecked() {
+        assertRejected("{\"events\":["
+                + "{\"type\":\"CALL\",\"atFloor\":1,\"to\":\"UP\"},"
+                + "{\"atFloor\":2,\"to\":\"UP\"},"
+                + "{\"type\":\"USER_HAS_ENTERED\",\"cabin\":0}"
+                + "]}");
+    }
+
+    @Test
+    public void causeOfResetIsChecked() {
+        assertRejected("{\"events\":["
+                + "{\"type\":\"CALL\",\"atFloor\":1,\"to\":\"UP\"},"
+                + "{\"type\":\"RESET\",\"lowerFloor\":0,\"higherFloor\":19,\"cabinSize\":30,\"cabinCount\":2}"
+                + "]}");
+    }
+
+    @Test
+    public void nullEventIsChecked() {
+        assertRejected("{\"events\":[{\"type\":\"CALL\",\"atFloor\":1,\"to\":\"UP\"},null]}");
+    }
+}
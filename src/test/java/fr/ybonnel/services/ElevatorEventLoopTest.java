@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.simpleweb4j.exception.HttpErrorException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ElevatorEventLoopTest {
+
+    private static void assertRejected(ElevatorService service, ElevatorEvent event) {
+        try {
+            service.handleEvent(event);
+            fail("Event must be rejected : " + event);
+        } catch (HttpErrorException expected) {
+            // Answered before the event is enqueued.
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void eventIsCheckedBeforeQueue() throws HttpErrorException {
+        RecordingElevators elevators = new RecordingElevators();
+        ElevatorService service = new ElevatorService("", elevators, true, false);
+        service.handleEvent(ElevatorEvent.reset("test", 0, 19, 30, 2));
+        assertRejected(service, ElevatorEvent.call(1, "SIDEWAYS"));
+        assertRejected(service, ElevatorEvent.go(2, 3));
+        service.handleEvent(ElevatorEvent.go(1, 3));
+        // Empty batch, only to wait for the events in the queue.
+        service.getEventsRoute().handle(new ElevatorEventBatch(), null);
+        assertEquals("[reset(test), go(1,3)]", elevators.applied.toString());
+    }
+
+    @Test(timeout = 5000)
+    public void loopSurvivesAnError() {
+        ElevatorEventLoop eventLoop = new ElevatorEventLoop(new RecordingElevators());
+        try {
+            eventLoop.execute(new ElevatorEventLoop.Action<Void>() {
+                @Override
+                public Void apply(Elevators elevators) {
+                    throw new StackOverflowError();
+                }
+            });
+            fail("Error must be thrown to the waiting thread");
+        } catch (StackOverflowError expected) {
+            // Thrown by the loop thread.
+        }
+        assertEquals("done", eventLoop.execute(new ElevatorEventLoop.Action<String>() {
+            @Override
+            public String apply(Elevators elevators) {
+                return "done";
+            }
+        }));
+        eventLoop.stop();
+    }
+}
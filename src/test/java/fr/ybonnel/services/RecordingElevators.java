@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.services.model.Commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Record applied events.
+ */
+class RecordingElevators implements Elevators {
+    final List<String> applied = new ArrayList<>();
+
+    @Override
+    public void logState() {
+    }
+
+    @Override
+    public Commands nextCommands() {
+        applied.add("nextCommands");
+        return null;
+    }
+
+    @Override
+    public void call(int floor, String to) {
+        applied.add("call(" + floor + "," + to + ")");
+    }
+
+    @Override
+    public void go(int cabin, int floorToGo) {
+        applied.add("go(" + cabin + "," + floorToGo + ")");
+    }
+
+    @Override
+    public void userHasEntered(int cabin) {
+        applied.add("userHasEntered(" + cabin + ")");
+    }
+
+    @Override
+    public void userHasExited(int cabin) {
+        applied.add("userHasExited(" + cabin + ")");
+    }
+
+    @Override
+    public void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+        applied.add("reset(" + cause + ")");
+    }
+}
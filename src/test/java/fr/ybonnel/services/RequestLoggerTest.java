@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestLoggerTest {
+
+    @Test
+    public void wrongRateLogsEachRequest() {
+        RequestLogger requestLogger = new RequestLogger(16, "go=x,call=0,nextCommands");
+        assertTrue(requestLogger.isSampled("go"));
+        assertTrue(requestLogger.isSampled("go"));
+        assertFalse(requestLogger.isSampled("call"));
+        assertTrue(requestLogger.isSampled("nextCommands"));
+    }
+
+    @Test
+    public void oneRequestOutOfRateIsLogged() {
+        RequestLogger requestLogger = new RequestLogger(16, "go=2");
+        assertTrue(requestLogger.isSampled("go"));
+        assertFalse(requestLogger.isSampled("go"));
+        assertTrue(requestLogger.isSampled("go"));
+    }
+}
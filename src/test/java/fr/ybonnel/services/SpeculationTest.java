@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013- Yan Bonnel
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ybonnel.services;
+
+import fr.ybonnel.ElevatorsWithState;
+import fr.ybonnel.services.model.Commands;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpeculationTest {
+
+    /**
+     * Prepare next commands after some events, as the event loop does when its queue is empty.
+     */
+    private static class SpeculatingElevators implements Elevators {
+        private final ByUser2Elevators elevators;
+        private final Random random = new Random(7);
+        private final double speculationRate;
+        private final List<String> commands = new ArrayList<>();
+
+        private SpeculatingElevators(ByUser2Elevators elevators, double speculationRate) {
+            this.elevators = elevators;
+            this.speculationRate = speculationRate;
+        }
+
+        private void speculate() {
+            if (random.nextDouble() < speculationRate) {
+                elevators.prepareNextCommands();
+            }
+        }
+
+        @Override
+        public void logState() {
+        }
+
+        @Override
+        public Commands nextCommands() {
+            Commands nextCommands = elevators.nextCommands();
+            commands.add(nextCommands.toString());
+            speculate();
+            return nextCommands;
+        }
+
+        @Override
+        public void call(int floor, String to) {
+            elevators.call(floor, to);
+            speculate();
+        }
+
+        @Override
+        public void go(int cabin, int floorToGo) {
+            elevators.go(cabin, floorToGo);
+            speculate();
+        }
+
+        @Override
+        public void userHasEntered(int cabin) {
+            elevators.userHasEntered(cabin);
+            speculate();
+        }
+
+        @Override
+        public void userHasExited(int cabin) {
+            elevators.userHasExited(cabin);
+            speculate();
+        }
+
+        @Override
+        public void reset(String cause, int lowerFloor, int higherFloor, int cabinSize, int cabinCount) {
+            elevators.reset(cause, lowerFloor, higherFloor, cabinSize, cabinCount);
+            speculate();
+        }
+    }
+
+    private static List<String> play(ByUser2Elevators elevators, double speculationRate) {
+        SpeculatingElevators speculatingElevators = new SpeculatingElevators(elevators, speculationRate);
+        ElevatorsWithState building = new ElevatorsWithState(speculatingElevators, -5, 48, 30, 8);
+        Random random = new Random(42);
+        for (int tick = 0; tick < 1500; tick++) {
+            building.oneTick(tick);
+            int nbUsers = ((tick / 50) % 6) * 2;
+            for (int index = 0; index < nbUsers; index++) {
+                int startFloor = random.nextInt(54) - 5;
+                int destinationFloor;
+                do {
+                    destinationFloor = random.nextInt(54) - 5;
+                } while (destinationFloor == startFloor);
+                building.addUser(tick, startFloor, destinationFloor);
+            }
+        }
+        return speculatingElevators.commands;
+    }
+
+    @Test
+    public void speculationDoesNotChangeCommands() {
+        List<String> expected = play(new ByUser2Elevators(false, false, 10), 0);
+        assertEquals(expected, play(new ByUser2Elevators(false, false, 10), 0.3));
+        assertEquals(expected, play(new ByUser2Elevators(false, false, 10), 1));
+    }
+
+    @Test
+    public void speculationDoesNotChangeCommandsWithForecast() {
+        ByUser2Elevators elevators = new ByUser2Elevators(false, false, 10);
+        elevators.setArrivalForecast(new ArrivalForecast(50, 100, 300));
+        List<String> expected = play(elevators, 0);
+        elevators = new ByUser2Elevators(false, false, 10);
+        elevators.setArrivalForecast(new ArrivalForecast(50, 100, 300));
+        assertEquals(expected, play(elevators, 0.5));
+    }
+
+    @Test
+    public void speculationDoesNotChangeCommandsWithMatching() {
+        ByUser2Elevators elevators = new ByUser2Elevators(false, false, 10);
+        elevators.setMatchingAssignment(true);
+        List<String> expected = play(elevators, 0);
+        elevators = new ByUser2Elevators(false, false, 10);
+        elevators.setMatchingAssignment(true);
+        assertEquals(expected, play(elevators, 0.5));
+    }
+}